@@ -4,6 +4,7 @@ plugins {
     id("dev.deftu.gradle.tools") version(dgtVersion)
     id("dev.deftu.gradle.tools.bloom") version(dgtVersion)
     id("dev.deftu.gradle.tools.publishing.maven") version(dgtVersion)
+    id("me.champeau.jmh") version("0.7.2")
 }
 
 repositories {
@@ -22,6 +23,15 @@ dependencies {
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.9.2")
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    // Benchmarks reuse the test fixtures, like the loopback test server
+    includeTests.set(true)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
 tasks {
     test {
         useJUnitPlatform()
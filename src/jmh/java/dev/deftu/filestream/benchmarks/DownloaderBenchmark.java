@@ -0,0 +1,106 @@
+package dev.deftu.filestream.benchmarks;
+
+import dev.deftu.filestream.api.DownloadRequest;
+import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.store.FileStore;
+import dev.deftu.filestream.tests.TestServer;
+import dev.deftu.filestream.util.HashingHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end to end download throughput against a {@link TestServer},
+ * so results don't depend on the network.
+ *
+ * @author xtrm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DownloaderBenchmark {
+
+    private static final int BATCH_SIZE = 16;
+
+    @Param({"65536", "16777216"})
+    public int size;
+
+    /**
+     * Simulated round trip time, in milliseconds.
+     */
+    @Param({"0", "20"})
+    public int latency;
+
+    private TestServer server;
+    private Path parent;
+    private FileStore store;
+    private Downloader downloader;
+    private URL url;
+    private Downloader.HashProvider hashProvider;
+    private List<DownloadRequest> batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // Without validators, every invocation has to download again
+        server = TestServer.start()
+                .validators(false)
+                .latency(Duration.ofMillis(latency));
+        parent = Files.createTempDirectory("filestream-downloader-benchmark");
+        store = new FileStore(parent, "store");
+        downloader = Downloader.create(store);
+
+        url = server.serve("/single", size);
+        hashProvider = Downloader.HashProvider.of(
+                HashingHelper.toHexString(HashingHelper.hash(server.getContent("/single"), HashingHelper.SHA256)),
+                "SHA-256"
+        );
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(DownloadRequest.builder(server.serve("/batch/" + i, size)).build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        downloader.close();
+        server.close();
+        Benchmarks.deleteRecursively(parent);
+    }
+
+    @Benchmark
+    public Path download() throws Exception {
+        return downloader.download(url).get();
+    }
+
+    /**
+     * Downloads and verifies the object, deleting it first as a valid
+     * object would just be a cache hit.
+     */
+    @Benchmark
+    public Path downloadVerified() throws Exception {
+        Files.deleteIfExists(store.getObject(url.toString()));
+        return downloader.download(url, hashProvider, null).get();
+    }
+
+    @Benchmark
+    public List<Path> downloadAll() throws Exception {
+        return downloader.downloadAll(batch).get();
+    }
+
+}
@@ -0,0 +1,65 @@
+package dev.deftu.filestream.benchmarks;
+
+import dev.deftu.filestream.util.HashingHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HashingHelper} across algorithms and input sizes, both
+ * in memory and streamed from a file.
+ *
+ * @author xtrm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HashingBenchmark {
+
+    @Param({"MD5", "SHA-1", "SHA-256", "SHA-512"})
+    public String algorithm;
+
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    private byte[] bytes;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+
+        file = Files.createTempFile("filestream-hashing-benchmark", ".bin");
+        Files.write(file, bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String hashBytes() {
+        return HashingHelper.toHexString(HashingHelper.hash(bytes, HashingHelper.getDigest(algorithm)));
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        return HashingHelper.hash(file, algorithm);
+    }
+
+}
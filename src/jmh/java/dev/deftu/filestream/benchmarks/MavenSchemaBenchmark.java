@@ -0,0 +1,83 @@
+package dev.deftu.filestream.benchmarks;
+
+import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.store.MavenSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MavenSchema} with the split based lambda it replaced.
+ *
+ * @author xtrm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MavenSchemaBenchmark {
+
+    private static final Store.ObjectSchema LEGACY = (storeRoot, name) -> {
+        String[] dataBits = name.split(":");
+        if (dataBits.length < 3) {
+            throw new UnsupportedOperationException("Invalid maven schema");
+        }
+
+        String groupId = dataBits[0];
+        String artifactId = dataBits[1];
+        String version = dataBits[2];
+        String classifier = dataBits.length > 3 ? dataBits[3] : null;
+        String extension = dataBits.length > 4 ? dataBits[4] : "jar";
+
+        String[] groupBits = groupId.split("\\.");
+        String groupPath = String.join(File.separator, groupBits);
+        String fileName = artifactId + "-" + version +
+                (classifier != null ? "-" + classifier : "") +
+                "." + extension;
+        return storeRoot.resolve(groupPath)
+                .resolve(artifactId)
+                .resolve(version)
+                .resolve(fileName);
+    };
+
+    private static final MavenSchema UNINTERNED = new MavenSchema(false);
+
+    @Param({
+            "org.apache.logging.log4j:log4j-api:2.0-beta9",
+            "org.lwjgl:lwjgl-glfw:3.3.1:natives-windows-arm64:jar"
+    })
+    public String coordinates;
+
+    private Path storeRoot;
+
+    @Setup
+    public void setup() {
+        storeRoot = Paths.get("store").toAbsolutePath();
+    }
+
+    @Benchmark
+    public Path legacy() throws IOException {
+        return LEGACY.getObjectPath(storeRoot, coordinates);
+    }
+
+    @Benchmark
+    public Path mavenSchema() {
+        return MavenSchema.INSTANCE.getObjectPath(storeRoot, coordinates);
+    }
+
+    @Benchmark
+    public Path mavenSchemaUninterned() {
+        return UNINTERNED.getObjectPath(storeRoot, coordinates);
+    }
+
+}
@@ -0,0 +1,75 @@
+package dev.deftu.filestream.benchmarks;
+
+import dev.deftu.filestream.api.Rewriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the ways {@link Rewriter#DEFAULT} can link an object to its
+ * target, and the fallback chain itself.
+ *
+ * @author xtrm
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RewriterBenchmark {
+
+    @Param({"DEFAULT", "SYMBOLIC_LINK", "HARD_LINK", "COPY"})
+    public String strategy;
+
+    @Param({"4096", "16777216"})
+    public int size;
+
+    private Path directory;
+    private Path origin;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("filestream-rewriter-benchmark");
+        origin = directory.resolve("origin");
+        target = directory.resolve("target");
+        Files.write(origin, new byte[size]);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTarget() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Path rewrite() throws IOException {
+        switch (strategy) {
+            case "DEFAULT":
+                return Rewriter.DEFAULT.rewrite(origin, target);
+            case "SYMBOLIC_LINK":
+                return Files.createSymbolicLink(target, origin);
+            case "HARD_LINK":
+                return Files.createLink(target, origin);
+            case "COPY":
+                return Files.copy(origin, target);
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + strategy);
+        }
+    }
+
+}
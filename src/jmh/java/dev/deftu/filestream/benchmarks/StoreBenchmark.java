@@ -0,0 +1,85 @@
+package dev.deftu.filestream.benchmarks;
+
+import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.store.FileStore;
+import dev.deftu.filestream.util.HashingHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FileStore#getObject(String)} for each built-in
+ * {@link Store.ObjectSchema}.
+ *
+ * @author xtrm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StoreBenchmark {
+
+    private static final int NAMES = 1024;
+
+    @Param({"DIRECT", "URL_ENCODED", "MAVEN", "FAST_HASH", "CACHED_FAST_HASH"})
+    public String schema;
+
+    private Path parent;
+    private Store store;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        parent = Files.createTempDirectory("filestream-store-benchmark");
+        store = new FileStore(parent, "store", createSchema());
+
+        names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = "MAVEN".equals(schema)
+                    ? "dev.deftu.benchmark:artifact-" + i + ":1.0." + i
+                    : "https://repo.example.com/dev/deftu/artifact-" + i + "/1.0/artifact-" + i + ".jar";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteRecursively(parent);
+    }
+
+    @Benchmark
+    public Path getObject() {
+        int index = next;
+        next = (index + 1) & (NAMES - 1);
+        return store.getObject(names[index]);
+    }
+
+    private Store.ObjectSchema createSchema() {
+        switch (schema) {
+            case "DIRECT":
+                return Store.ObjectSchema.DIRECT;
+            case "URL_ENCODED":
+                return Store.ObjectSchema.URL_ENCODED;
+            case "MAVEN":
+                return Store.ObjectSchema.MAVEN;
+            case "FAST_HASH":
+                return Store.ObjectSchema.fastHash(HashingHelper.SHA256);
+            case "CACHED_FAST_HASH":
+                return Store.ObjectSchema.cached(Store.ObjectSchema.fastHash(HashingHelper.SHA256));
+            default:
+                throw new IllegalArgumentException("Unknown schema " + schema);
+        }
+    }
+
+}
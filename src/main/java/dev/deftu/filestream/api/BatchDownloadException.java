@@ -0,0 +1,43 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Thrown by a {@link Downloader.BatchDownload} when one or more of its
+ * downloads failed.
+ *
+ * @author xtrm
+ */
+public class BatchDownloadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<DownloadRequest, Throwable> failures;
+
+    public BatchDownloadException(@NotNull Map<DownloadRequest, Throwable> failures) {
+        super(failures.size() + " download(s) failed, first: " + failures.keySet().iterator().next(),
+                failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+
+        boolean first = true;
+        for (Throwable failure : failures.values()) {
+            if (!first) {
+                addSuppressed(failure);
+            }
+
+            first = false;
+        }
+    }
+
+    /**
+     * @return every failed {@link DownloadRequest} and the reason it failed,
+     * in the order the requests were given
+     */
+    public @NotNull Map<DownloadRequest, Throwable> getFailures() {
+        return failures;
+    }
+
+}
@@ -0,0 +1,87 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+
+/**
+ * <p>
+ * Receives measurements from a {@link Downloader}, see
+ * {@link DownloaderConfig.Builder#metrics(DownloadMetrics)}. Only the
+ * downloader reports: what the {@link Store} does on its own, such as
+ * evicting or hashing objects, isn't measured.
+ * </p>
+ * <p>
+ * Every method does nothing by default, so implementations only pick what
+ * they care about. They are called from download threads and must be
+ * thread-safe and cheap. Durations are in nanoseconds.
+ * </p>
+ *
+ * @author xtrm
+ */
+public interface DownloadMetrics {
+
+    DownloadMetrics NOOP = new DownloadMetrics() {
+    };
+
+    /**
+     * @param queueWait how long the download waited for a thread
+     */
+    default void queued(@NotNull URL url, long queueWait) {
+    }
+
+    /**
+     * The store already held a valid object, no bytes were transferred.
+     *
+     * @param bytes the size of the object served from the store
+     */
+    default void cacheHit(@NotNull URL url, long bytes) {
+    }
+
+    /**
+     * The server confirmed the stored object is still current.
+     *
+     * @param bytes the size of the object served from the store
+     */
+    default void revalidated(@NotNull URL url, long bytes) {
+    }
+
+    default void cacheMiss(@NotNull URL url) {
+    }
+
+    /**
+     * @param timeToFirstByte how long the server took to answer the request
+     */
+    default void connected(@NotNull URL url, long timeToFirstByte) {
+    }
+
+    /**
+     * A transfer completed.
+     *
+     * @param wireBytes   the bytes received over the network
+     * @param storedBytes the bytes written to the store, which differ from
+     *                    {@code wireBytes} for compressed bodies
+     * @param duration    how long the transfer took, from the request on
+     */
+    default void transferred(@NotNull URL url, long wireBytes, long storedBytes, long duration) {
+    }
+
+    /**
+     * @param bytes    the amount of bytes hashed
+     * @param duration how long hashing them took
+     */
+    default void hashed(@NotNull URL url, long bytes, long duration) {
+    }
+
+    /**
+     * @param attempt the attempt about to be made, starting at {@code 2}
+     * @param cause   why the previous attempt failed, if known
+     */
+    default void retried(@NotNull URL url, int attempt, @Nullable Throwable cause) {
+    }
+
+    default void failed(@NotNull URL url, @NotNull Throwable cause) {
+    }
+
+}
@@ -0,0 +1,179 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a single file to download, mostly useful for
+ * {@link Downloader#downloadAll(java.util.Collection)}.
+ *
+ * @author xtrm
+ */
+public final class DownloadRequest {
+
+    /**
+     * Higher priorities first, then largest files first so long transfers
+     * don't end up alone at the tail of a batch.
+     */
+    public static final Comparator<DownloadRequest> SCHEDULING_ORDER =
+            Comparator.comparingInt(DownloadRequest::getPriority).reversed()
+                    .thenComparing(Comparator.comparingLong(DownloadRequest::getExpectedSize).reversed());
+
+    private final URL url;
+    private final List<URL> mirrors;
+    private final @Nullable Path target;
+    private final @Nullable Downloader.HashProvider hashProvider;
+    private final int priority;
+    private final long expectedSize;
+
+    private DownloadRequest(Builder builder) {
+        this.url = builder.url;
+        this.mirrors = Collections.unmodifiableList(new ArrayList<>(builder.mirrors.values()));
+        this.target = builder.target;
+        this.hashProvider = builder.hashProvider;
+        this.priority = builder.priority;
+        this.expectedSize = builder.expectedSize;
+    }
+
+    public @NotNull URL getUrl() {
+        return url;
+    }
+
+    /**
+     * @return other {@link URL}s serving the same file, in order of preference
+     */
+    public @NotNull List<URL> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * @return the {@link URL} followed by its mirrors
+     */
+    public @NotNull List<URL> getSources() {
+        if (mirrors.isEmpty()) {
+            return Collections.singletonList(url);
+        }
+
+        List<URL> sources = new ArrayList<>(mirrors.size() + 1);
+        sources.add(url);
+        sources.addAll(mirrors);
+        return sources;
+    }
+
+    public @Nullable Path getTarget() {
+        return target;
+    }
+
+    public @Nullable Downloader.HashProvider getHashProvider() {
+        return hashProvider;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the expected size in bytes, or {@code -1} if unknown
+     */
+    public long getExpectedSize() {
+        return expectedSize;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadRequest{" + url + (target != null ? " -> " + target : "") + "}";
+    }
+
+    public static @NotNull DownloadRequest of(@NotNull URL url) {
+        return builder(url).build();
+    }
+
+    public static @NotNull DownloadRequest of(@NotNull URL url, @Nullable Downloader.HashProvider hashProvider) {
+        return builder(url).hash(hashProvider).build();
+    }
+
+    public static @NotNull Builder builder(@NotNull URL url) {
+        return new Builder(url);
+    }
+
+    public static final class Builder {
+
+        private final URL url;
+        // Keyed by string, URL#equals resolves host names
+        private final Map<String, URL> mirrors = new LinkedHashMap<>();
+        private Path target;
+        private Downloader.HashProvider hashProvider;
+        private int priority = 0;
+        private long expectedSize = -1;
+
+        private Builder(URL url) {
+            this.url = url;
+        }
+
+        /**
+         * Adds a {@link URL} serving the same file. The file is still stored
+         * under the request's {@link URL}, whichever source it came from.
+         */
+        public Builder mirror(@NotNull URL mirror) {
+            if (!mirror.toString().equals(url.toString())) {
+                this.mirrors.putIfAbsent(mirror.toString(), mirror);
+            }
+
+            return this;
+        }
+
+        public Builder mirrors(@NotNull Collection<URL> mirrors) {
+            for (URL mirror : mirrors) {
+                mirror(mirror);
+            }
+
+            return this;
+        }
+
+        /**
+         * Links the downloaded store object to the given {@link Path}.
+         */
+        public Builder target(@Nullable Path target) {
+            this.target = target;
+            return this;
+        }
+
+        public Builder hash(@Nullable Downloader.HashProvider hashProvider) {
+            this.hashProvider = hashProvider;
+            return this;
+        }
+
+        /**
+         * Requests with a higher priority are scheduled first.
+         */
+        public Builder priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * The expected size in bytes, used to order and report the progress
+         * of batches before the server has answered.
+         */
+        public Builder expectedSize(long expectedSize) {
+            this.expectedSize = expectedSize;
+            return this;
+        }
+
+        public DownloadRequest build() {
+            return new DownloadRequest(this);
+        }
+
+    }
+
+}
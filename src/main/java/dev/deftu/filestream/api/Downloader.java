@@ -1,22 +1,32 @@
 package dev.deftu.filestream.api;
 
 import dev.deftu.filestream.download.DownloaderImpl;
+import dev.deftu.filestream.util.HashingHelper;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.net.URL;
 import java.nio.file.Path;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 /**
+ * <p>
  * Schedules and manages downloads.
+ * </p>
+ * <p>
+ * Downloads run on a dedicated, bounded pool (or the {@link java.util.concurrent.Executor}
+ * given through {@link DownloaderConfig}), never on the common
+ * {@link java.util.concurrent.ForkJoinPool}.
+ * </p>
  *
  * @author xtrm
  */
-public interface Downloader {
+public interface Downloader extends AutoCloseable {
 
     /**
      * <p>
@@ -24,7 +34,8 @@ public interface Downloader {
      * </p>
      * <p>
      * Will try to rely on a cache mechanism if the file already exists and
-     * {@code hashProvider} is provided.
+     * either matches {@code hashProvider}, or the server confirms it hasn't
+     * changed since it was fetched (see {@link DownloaderConfig.Builder#maxAge}).
      * </p>
      *
      * @param url          the {@link URL} to download from
@@ -83,15 +94,114 @@ public interface Downloader {
         return download(url, (Path) null, null, DownloadCallback.NOOP);
     }
 
+    /**
+     * Downloads a {@link DownloadRequest}, failing over to its
+     * {@link DownloadRequest#getMirrors() mirrors}, tried fastest first,
+     * when a source fails. Implementations without mirror support only use
+     * {@link DownloadRequest#getUrl()}.
+     */
+    default Download<URL> download(@NotNull DownloadRequest request,
+            @Nullable DownloadCallback callback) {
+        return download(request.getUrl(), request.getTarget(),
+                request.getHashProvider(), callback);
+    }
+
+    default Download<URL> download(DownloadRequest request) {
+        return download(request, DownloadCallback.NOOP);
+    }
+
+    /**
+     * <p>
+     * Downloads every given {@link DownloadRequest}, scheduled in
+     * {@link DownloadRequest#SCHEDULING_ORDER}.
+     * </p>
+     *
+     * @param requests    the {@link DownloadRequest}s to download
+     * @param failureMode how to handle a failed download
+     * @param callback    a {@link DownloadCallback} called with the combined
+     *                    progress of the whole batch
+     * @return a {@link BatchDownload} of the downloaded {@link Path}s, in the
+     * order the requests were given
+     */
+    BatchDownload downloadAll(@NotNull Collection<DownloadRequest> requests,
+            @NotNull FailureMode failureMode,
+            @Nullable DownloadCallback callback);
+
+    default BatchDownload downloadAll(Collection<DownloadRequest> requests,
+            DownloadCallback callback) {
+        return downloadAll(requests, FailureMode.FAIL_FAST, callback);
+    }
+
+    default BatchDownload downloadAll(Collection<DownloadRequest> requests) {
+        return downloadAll(requests, FailureMode.FAIL_FAST, DownloadCallback.NOOP);
+    }
+
+    /**
+     * A scheduled download. Cancelling it aborts the transfer and deletes
+     * what was downloaded so far, unless other downloads of the same object
+     * are still waiting for it.
+     */
     interface Download<S> extends Future<Path> {
         @NotNull
         S getSource();
+
+        /**
+         * @return a {@link CompletionStage} completing with the downloaded
+         * {@link Path}, to chain work onto the download without blocking
+         */
+        @NotNull
+        CompletionStage<Path> toCompletionStage();
     }
 
+    interface BatchDownload extends Future<List<Path>> {
+
+        /**
+         * @return the {@link Download}s scheduled so far, in the order their
+         * requests were given
+         */
+        @NotNull
+        List<Download<URL>> getDownloads();
+
+        long getDownloadedBytes();
+
+        /**
+         * @return the total size of the batch, as far as it is known yet
+         */
+        long getTotalBytes();
+
+        int getCompletedCount();
+
+    }
+
+    enum FailureMode {
+        /**
+         * Fail the batch and cancel the remaining downloads as soon as a
+         * single download fails.
+         */
+        FAIL_FAST,
+        /**
+         * Let every download finish, then fail the batch with all failures
+         * if there were any.
+         */
+        COLLECT_ALL
+    }
+
+    /**
+     * Stops accepting new downloads and releases the download pool once
+     * already scheduled downloads are done. An {@link java.util.concurrent.Executor}
+     * provided through {@link DownloaderConfig} is left untouched.
+     */
+    @Override
+    void close();
+
     static Downloader create(Store store) {
         return new DownloaderImpl(store);
     }
 
+    static Downloader create(Store store, DownloaderConfig config) {
+        return new DownloaderImpl(store, config);
+    }
+
     interface HashProvider {
 
         @Nullable
@@ -106,8 +216,6 @@ public interface Downloader {
 
         static HashProvider of(String hash, String hashingFunction) {
             return new HashProvider() {
-                private MessageDigest messageDigest;
-
                 @Override
                 public String getHash() {
                     return hash;
@@ -115,16 +223,7 @@ public interface Downloader {
 
                 @Override
                 public Supplier<@NotNull MessageDigest> getHashingFunction() {
-                    return () -> {
-                        if (messageDigest == null) {
-                            try {
-                                messageDigest = MessageDigest.getInstance(hashingFunction);
-                            } catch (NoSuchAlgorithmException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                        return messageDigest;
-                    };
+                    return () -> HashingHelper.findDigest(hashingFunction);
                 }
             };
         }
@@ -158,8 +257,10 @@ public interface Downloader {
          * </p>
          *
          * <p>
-         * <b>Implementation Notice</b>: Please not that this function, in
-         * event of a cached file, might not be called.
+         * <b>Implementation Notice</b>: Calls may be throttled, see
+         * {@link DownloaderConfig.Builder#progressInterval}, but the final
+         * progress is always reported before the download completes, once
+         * for a cached file.
          * </p>
          *
          * @param downloaded the amount of bytes downloaded
@@ -0,0 +1,301 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Tuning knobs for a {@link Downloader}, see {@link #builder()}.
+ *
+ * @author xtrm
+ */
+public final class DownloaderConfig {
+
+    public static final DownloaderConfig DEFAULT = builder().build();
+
+    private final @Nullable Executor executor;
+    private final int threads;
+    private final boolean virtualThreads;
+    private final int maxConnectionsPerHost;
+    private final int queueCapacity;
+    private final int segments;
+    private final long segmentThreshold;
+    private final Duration maxAge;
+    private final DownloadMetrics metrics;
+    private final Duration progressInterval;
+    private final long progressBytes;
+    private final Transport transport;
+    private final @Nullable HedgingPolicy hedging;
+    private final RetryPolicy retry;
+
+    private DownloaderConfig(Builder builder) {
+        this.executor = builder.executor;
+        this.threads = builder.threads;
+        this.virtualThreads = builder.virtualThreads;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.queueCapacity = builder.queueCapacity;
+        this.segments = builder.segments;
+        this.segmentThreshold = builder.segmentThreshold;
+        this.maxAge = builder.maxAge;
+        this.metrics = builder.metrics;
+        this.progressInterval = builder.progressInterval;
+        this.progressBytes = builder.progressBytes;
+        this.transport = builder.transport;
+        this.hedging = builder.hedging;
+        this.retry = builder.retry;
+    }
+
+    /**
+     * @return the {@link Executor} downloads run on, or {@code null} if the
+     * {@link Downloader} should create and own its own pool
+     */
+    public @Nullable Executor getExecutor() {
+        return executor;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Duration getProgressInterval() {
+        return progressInterval;
+    }
+
+    public long getProgressBytes() {
+        return progressBytes;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public @Nullable HedgingPolicy getHedging() {
+        return hedging;
+    }
+
+    public RetryPolicy getRetry() {
+        return retry;
+    }
+
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Executor executor;
+        private int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private boolean virtualThreads = false;
+        private int maxConnectionsPerHost = 6;
+        private int queueCapacity = 1024;
+        private int segments = 1;
+        private long segmentThreshold = 32L * 1024 * 1024;
+        private Duration maxAge = Duration.ZERO;
+        private DownloadMetrics metrics = DownloadMetrics.NOOP;
+        private Duration progressInterval = Duration.ZERO;
+        private long progressBytes = 0;
+        private Transport transport = Transport.DEFAULT;
+        private HedgingPolicy hedging;
+        private RetryPolicy retry = RetryPolicy.NONE;
+
+        private Builder() {
+        }
+
+        /**
+         * Runs downloads on the given {@link Executor} instead of a pool
+         * owned by the {@link Downloader}. {@link #threads(int)},
+         * {@link #virtualThreads(boolean)} and {@link #queueCapacity(int)}
+         * are ignored when set.
+         */
+        public Builder executor(@Nullable Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The amount of platform threads in the owned download pool.
+         */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1");
+            }
+
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Runs every download on its own virtual thread when the running JVM
+         * supports them (Java 21+), falling back to the platform thread pool
+         * otherwise.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * The maximum amount of simultaneous connections to a single host.
+         */
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+            }
+
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * The amount of downloads which may wait for a thread of the owned
+         * pool. Once full, scheduling a download blocks until there is room.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("queueCapacity must be at least 1");
+            }
+
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Splits large downloads into this many byte ranges fetched in parallel,
+         * when the server supports range requests. {@code 1} disables segmented
+         * downloads.
+         */
+        public Builder segments(int segments) {
+            if (segments < 1) {
+                throw new IllegalArgumentException("segments must be at least 1");
+            }
+
+            this.segments = segments;
+            return this;
+        }
+
+        /**
+         * The minimum size in bytes a download must have to be segmented.
+         */
+        public Builder segmentThreshold(long segmentThreshold) {
+            if (segmentThreshold < 0) {
+                throw new IllegalArgumentException("segmentThreshold must not be negative");
+            }
+
+            this.segmentThreshold = segmentThreshold;
+            return this;
+        }
+
+        /**
+         * How long a store object without a known hash is trusted after it
+         * was fetched or revalidated. Until then it is served without contacting
+         * the server; afterwards a conditional request checks whether it changed.
+         * {@link Duration#ZERO} revalidates on every download.
+         */
+        public Builder maxAge(Duration maxAge) {
+            if (maxAge.isNegative()) {
+                throw new IllegalArgumentException("maxAge must not be negative");
+            }
+
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * Receives measurements of every download, see {@link DownloadMetrics}.
+         */
+        public Builder metrics(DownloadMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * The minimum time between two progress callbacks of a download or batch.
+         * Intermediate progress is dropped, the final progress is always reported.
+         * {@link Duration#ZERO} reports every read.
+         */
+        public Builder progressInterval(Duration progressInterval) {
+            if (progressInterval.isNegative()) {
+                throw new IllegalArgumentException("progressInterval must not be negative");
+            }
+
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * The minimum amount of bytes a download or batch must progress by between
+         * two progress callbacks. Combined with {@link #progressInterval(Duration)},
+         * both must be reached. The final progress is always reported.
+         */
+        public Builder progressBytes(long progressBytes) {
+            if (progressBytes < 0) {
+                throw new IllegalArgumentException("progressBytes must not be negative");
+            }
+
+            this.progressBytes = progressBytes;
+            return this;
+        }
+
+        /**
+         * Sends the requests of downloads, see {@link Transport}.
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Hedges requests of downloads with mirrors, see {@link HedgingPolicy}.
+         * {@code null} disables hedging.
+         */
+        public Builder hedging(@Nullable HedgingPolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Retries failed transfers and cuts failing hosts off, see {@link RetryPolicy}.
+         * {@link RetryPolicy#NONE} by default.
+         */
+        public Builder retry(RetryPolicy retry) {
+            this.retry = retry;
+            return this;
+        }
+
+        public DownloaderConfig build() {
+            return new DownloaderConfig(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * <p>
+ * When to send a second request for a download with mirrors, see
+ * {@link #builder()} and {@link DownloaderConfig.Builder#hedging(HedgingPolicy)}.
+ * </p>
+ * <p>
+ * If a source hasn't answered after the hedging delay, the same request
+ * goes to the next mirror as well. The first answer is used and the other
+ * request is aborted.
+ * </p>
+ *
+ * @author xtrm
+ */
+public final class HedgingPolicy {
+
+    private final Duration delay;
+    private final double percentile;
+    private final double budget;
+
+    private HedgingPolicy(Builder builder) {
+        this.delay = builder.delay;
+        this.percentile = builder.percentile;
+        this.budget = builder.budget;
+    }
+
+    /**
+     * @return how long to wait for an answer before hedging, or the minimum
+     * delay when it is adaptive
+     */
+    public Duration getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return the percentile of recent answer times used as the delay, or
+     * {@code 0} if the delay is fixed
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @return the share of requests which may be hedged
+     */
+    public double getBudget() {
+        return budget;
+    }
+
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private Duration delay = Duration.ofMillis(100);
+        private double percentile = 0;
+        private double budget = 0.1;
+
+        private Builder() {
+        }
+
+        /**
+         * How long to wait for an answer before hedging. With
+         * {@link #percentile(double)}, the minimum delay, also used until
+         * enough answers were timed.
+         */
+        public Builder delay(@NotNull Duration delay) {
+            if (delay.isNegative()) {
+                throw new IllegalArgumentException("delay must not be negative");
+            }
+
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * Derives the delay from recent answer times, e.g. {@code 0.95}
+         * hedges requests slower than 95% of them. {@code 0} uses the fixed
+         * {@link #delay(Duration)}.
+         */
+        public Builder percentile(double percentile) {
+            if (percentile < 0 || percentile >= 1) {
+                throw new IllegalArgumentException("percentile must be between 0 (inclusive) and 1 (exclusive)");
+            }
+
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * The share of requests which may be hedged, capping the extra load
+         * put on mirrors, e.g. {@code 0.1} for at most one in ten.
+         */
+        public Builder budget(double budget) {
+            if (budget <= 0 || budget > 1) {
+                throw new IllegalArgumentException("budget must be between 0 (exclusive) and 1 (inclusive)");
+            }
+
+            this.budget = budget;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+
+/**
+ * Thrown when a server answered a download with an error status.
+ *
+ * @author xtrm
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final URL url;
+    private final int statusCode;
+    private final @Nullable String retryAfter;
+
+    public HttpStatusException(@NotNull URL url, int statusCode, @Nullable String retryAfter) {
+        super("Server returned HTTP " + statusCode + " for " + url);
+        this.url = url;
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public @NotNull URL getUrl() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the {@code Retry-After} header of the response, if any
+     */
+    public @Nullable String getRetryAfter() {
+        return retryAfter;
+    }
+
+}
@@ -0,0 +1,219 @@
+package dev.deftu.filestream.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * How a {@link Downloader} retries failed transfers, see {@link #builder()}
+ * and {@link DownloaderConfig.Builder#retry(RetryPolicy)}.
+ * </p>
+ * <p>
+ * Network errors and retryable status codes are retried from the same
+ * source, after an exponential backoff with jitter or the server's
+ * {@code Retry-After}, and resume where the failed attempt stopped when
+ * possible. Once a source is out of attempts, the next mirror is tried.
+ * </p>
+ * <p>
+ * Hosts failing too many transfers in a row are cut off for a while by a
+ * circuit breaker: downloads from them fail right away, without taking a
+ * connection or waiting for a timeout, until a single trial request
+ * succeeds again.
+ * </p>
+ *
+ * @author xtrm
+ */
+public final class RetryPolicy {
+
+    /**
+     * Never retries and never cuts hosts off.
+     */
+    public static final RetryPolicy NONE = builder().maxAttempts(1).circuitBreakerThreshold(0).build();
+
+    private final int maxAttempts;
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+    private final double multiplier;
+    private final double jitter;
+    private final Set<Integer> retryableStatusCodes;
+    private final int circuitBreakerThreshold;
+    private final Duration circuitBreakerDuration;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialDelay = builder.initialDelay;
+        this.maxDelay = builder.maxDelay;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableStatusCodes));
+        this.circuitBreakerThreshold = builder.circuitBreakerThreshold;
+        this.circuitBreakerDuration = builder.circuitBreakerDuration;
+    }
+
+    /**
+     * @return the attempts made per source, the first one included
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * @return the longest time to wait before an attempt, a longer
+     * {@code Retry-After} gives up on the source
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * @return the consecutive failures after which a host is cut off, or
+     * {@code 0} if never
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public Duration getCircuitBreakerDuration() {
+        return circuitBreakerDuration;
+    }
+
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int maxAttempts = 3;
+        private Duration initialDelay = Duration.ofMillis(500);
+        private Duration maxDelay = Duration.ofSeconds(30);
+        private double multiplier = 2;
+        private double jitter = 0.5;
+        private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+        private int circuitBreakerThreshold = 5;
+        private Duration circuitBreakerDuration = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        /**
+         * The attempts made per source, the first one included. {@code 1}
+         * disables retries.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The delay before the first retry, multiplied by
+         * {@link #multiplier(double)} for every following one.
+         */
+        public Builder initialDelay(@NotNull Duration initialDelay) {
+            if (initialDelay.isNegative()) {
+                throw new IllegalArgumentException("initialDelay must not be negative");
+            }
+
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        public Builder maxDelay(@NotNull Duration maxDelay) {
+            if (maxDelay.isNegative()) {
+                throw new IllegalArgumentException("maxDelay must not be negative");
+            }
+
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier must be at least 1");
+            }
+
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * The share of each delay which is randomized, so clients failing
+         * together don't retry together. {@code 0.5} waits between half and
+         * all of the delay.
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * The HTTP status codes worth retrying, {@code 408}, {@code 429} and
+         * {@code 5xx} gateway and availability errors by default.
+         */
+        public Builder retryableStatusCodes(@NotNull Collection<Integer> retryableStatusCodes) {
+            this.retryableStatusCodes = new HashSet<>(retryableStatusCodes);
+            return this;
+        }
+
+        /**
+         * The consecutive failures after which a host is cut off, {@code 0}
+         * to never cut hosts off.
+         */
+        public Builder circuitBreakerThreshold(int circuitBreakerThreshold) {
+            if (circuitBreakerThreshold < 0) {
+                throw new IllegalArgumentException("circuitBreakerThreshold must not be negative");
+            }
+
+            this.circuitBreakerThreshold = circuitBreakerThreshold;
+            return this;
+        }
+
+        /**
+         * How long a host stays cut off before a trial request is let
+         * through.
+         */
+        public Builder circuitBreakerDuration(@NotNull Duration circuitBreakerDuration) {
+            if (circuitBreakerDuration.isNegative()) {
+                throw new IllegalArgumentException("circuitBreakerDuration must not be negative");
+            }
+
+            this.circuitBreakerDuration = circuitBreakerDuration;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+
+    }
+
+}
@@ -1,10 +1,14 @@
 package dev.deftu.filestream.api;
 
+import dev.deftu.filestream.store.CachingObjectSchema;
+import dev.deftu.filestream.store.ContentAddressedStore;
 import dev.deftu.filestream.store.FastHashSchema;
 import dev.deftu.filestream.store.FileStore;
+import dev.deftu.filestream.store.HashIndex;
+import dev.deftu.filestream.store.MavenSchema;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.file.Path;
@@ -23,6 +27,54 @@ public interface Store {
 
     @NotNull Store getSubStore(String name, ObjectSchema objectSchema);
 
+    /**
+     * @return the {@link HashIndex} remembering which objects of this store
+     * were already verified, or {@code null} if the store doesn't keep one
+     */
+    default @Nullable HashIndex getHashIndex() {
+        return null;
+    }
+
+    /**
+     * @return the digest algorithm this store addresses content by, or
+     * {@code null} if objects are only addressed by name
+     */
+    default @Nullable String getContentAlgorithm() {
+        return null;
+    }
+
+    /**
+     * Moves a fully written temporary file into place as {@code object}, so
+     * readers only ever see a complete object or none at all.
+     *
+     * @param contentHash the hash of the file in this store's
+     *                    {@link #getContentAlgorithm() content algorithm},
+     *                    or {@code null} if it isn't known
+     */
+    default void commit(@NotNull Path tempObject, @NotNull Path object, @Nullable String contentHash) throws IOException {
+        FileStore.moveAtomically(tempObject, object);
+    }
+
+    /**
+     * Points {@code object} to content this store already holds.
+     *
+     * @return whether {@code object} now has the given content, {@code false}
+     * if the store doesn't hold it
+     */
+    default boolean linkContent(@NotNull Path object, @NotNull String algorithm, @NotNull String hash) throws IOException {
+        return false;
+    }
+
+    /**
+     * Protects {@code object} from being evicted until a matching call to
+     * {@link #unpin(Path)}. Pins are counted.
+     */
+    default void pin(@NotNull Path object) {
+    }
+
+    default void unpin(@NotNull Path object) {
+    }
+
     static @NotNull Store getGlobalStore() {
         return FileStore.GLOBAL_STORE;
     }
@@ -35,6 +87,10 @@ public interface Store {
         return new FileStore(getGlobalStore().getStoreRoot(), name, objectSchema);
     }
 
+    static @NotNull Store contentAddressed(@NotNull String name) {
+        return new ContentAddressedStore(getGlobalStore().getStoreRoot(), name);
+    }
+
     /**
      * @author xtrm
      */
@@ -44,34 +100,24 @@ public interface Store {
         ObjectSchema DIRECT = Path::resolve;
         ObjectSchema URL_ENCODED = (storeRoot, name) ->
                 storeRoot.resolve(URLEncoder.encode(name, "UTF-8"));
-        ObjectSchema MAVEN = (storeRoot, name) -> {
-            // groupId:artifactId:version:classifier:extension
-            String[] dataBits = name.split(":");
-            if (dataBits.length < 3) {
-                throw new UnsupportedOperationException("Invalid maven schema");
-            }
-
-            String groupId = dataBits[0];
-            String artifactId = dataBits[1];
-            String version = dataBits[2];
-            String classifier = dataBits.length > 3 ? dataBits[3] : null;
-            String extension = dataBits.length > 4 ? dataBits[4] : "jar";
-
-            String[] groupBits = groupId.split("\\.");
-            String groupPath = String.join(File.separator, groupBits);
-            String fileName = artifactId + "-" + version +
-                    (classifier != null ? "-" + classifier : "") +
-                    "." + extension;
-            return storeRoot.resolve(groupPath)
-                    .resolve(artifactId)
-                    .resolve(version)
-                    .resolve(fileName);
-        };
+        ObjectSchema MAVEN = MavenSchema.INSTANCE;
 
         static ObjectSchema fastHash(MessageDigest digest) {
             return new FastHashSchema(digest);
         }
 
+        /**
+         * @return a {@link CachingObjectSchema} remembering the paths
+         * {@code schema} resolves
+         */
+        static CachingObjectSchema cached(ObjectSchema schema) {
+            return new CachingObjectSchema(schema);
+        }
+
+        static CachingObjectSchema cached(ObjectSchema schema, int maxSize) {
+            return new CachingObjectSchema(schema, maxSize);
+        }
+
         Path getObjectPath(Path storeRoot, String name) throws IOException;
 
     }
@@ -0,0 +1,81 @@
+package dev.deftu.filestream.api;
+
+import dev.deftu.filestream.download.UrlConnectionTransport;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * <p>
+ * Sends the requests of a {@link Downloader}, see
+ * {@link DownloaderConfig.Builder#transport(Transport)}.
+ * </p>
+ * <p>
+ * Implementations are shared by every download thread and must be
+ * thread-safe. They are expected to reuse connections: a {@link Response}
+ * whose body was read to the end and {@link Response#close() closed} hands
+ * its connection back for the next request to the same host.
+ * </p>
+ *
+ * @author xtrm
+ */
+public interface Transport {
+
+    /**
+     * Uses {@link java.net.URLConnection}, keeping HTTP connections alive
+     * between requests. Also supports {@code file:} and {@code jar:} URLs.
+     */
+    Transport DEFAULT = UrlConnectionTransport.INSTANCE;
+
+    /**
+     * Sends a request and waits for the response headers.
+     *
+     * @param method  the request method, {@code GET} or {@code HEAD}
+     * @param headers request headers, overriding the transport's defaults
+     * @return the {@link Response}, which must be closed
+     */
+    @NotNull
+    Response send(@NotNull URL url, @NotNull String method, @NotNull Map<String, String> headers) throws IOException;
+
+    interface Response extends AutoCloseable {
+
+        /**
+         * @return the HTTP status code, {@code 200} for protocols without any
+         */
+        int getStatusCode();
+
+        @Nullable
+        String getHeader(@NotNull String name);
+
+        /**
+         * @return the length of the body in bytes, as sent over the wire, or
+         * {@code -1} if unknown
+         */
+        long getContentLength();
+
+        /**
+         * @return the body, as sent over the wire
+         */
+        @NotNull
+        InputStream getBody() throws IOException;
+
+        /**
+         * Releases the response, letting its connection be reused if what
+         * is left of the body is small enough to be skipped.
+         */
+        @Override
+        void close();
+
+        /**
+         * Releases the response and drops its connection, interrupting a
+         * transfer in progress.
+         */
+        void abort();
+
+    }
+
+}
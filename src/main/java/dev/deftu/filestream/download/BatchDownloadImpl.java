@@ -0,0 +1,203 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.BatchDownloadException;
+import dev.deftu.filestream.api.DownloadRequest;
+import dev.deftu.filestream.api.Downloader;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author xtrm
+ */
+class BatchDownloadImpl implements Downloader.BatchDownload {
+
+    private final List<DownloadRequest> requests;
+    private final Downloader.FailureMode failureMode;
+    private final ThrottledCallback callback;
+
+    private final CompletableFuture<List<Path>> future = new CompletableFuture<>();
+    private final AtomicReferenceArray<DownloadImpl> downloads;
+    private final AtomicReferenceArray<Throwable> failures;
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private final AtomicLongArray downloadedBytes;
+    private final AtomicLongArray totalBytes;
+    private final AtomicLong batchDownloadedBytes = new AtomicLong();
+    private final AtomicLong batchTotalBytes = new AtomicLong();
+
+    BatchDownloadImpl(List<DownloadRequest> requests, Downloader.FailureMode failureMode, ThrottledCallback callback) {
+        this.requests = requests;
+        this.failureMode = failureMode;
+        this.callback = callback;
+
+        this.downloads = new AtomicReferenceArray<>(requests.size());
+        this.failures = new AtomicReferenceArray<>(requests.size());
+        this.downloadedBytes = new AtomicLongArray(requests.size());
+        this.totalBytes = new AtomicLongArray(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            long expectedSize = Math.max(0, requests.get(i).getExpectedSize());
+            totalBytes.set(i, expectedSize);
+            batchTotalBytes.addAndGet(expectedSize);
+        }
+
+        if (requests.isEmpty()) {
+            future.complete(Collections.emptyList());
+        }
+    }
+
+    /**
+     * @return a {@link Downloader.DownloadCallback} folding the progress of
+     * the download at {@code index} into the batch's progress
+     */
+    Downloader.DownloadCallback createCallback(int index) {
+        return (downloaded, total) -> updateProgress(index, downloaded, total);
+    }
+
+    void register(int index, DownloadImpl download) {
+        downloads.set(index, download);
+        if (future.isDone()) {
+            download.cancel(true);
+            return;
+        }
+
+        download.getFuture().whenComplete((path, throwable) -> onComplete(index, path, throwable));
+    }
+
+    private void updateProgress(int index, long downloaded, long total) {
+        long downloadedDelta = downloaded - downloadedBytes.getAndSet(index, downloaded);
+        long totalDelta = total > 0 ? total - totalBytes.getAndSet(index, total) : 0;
+        long batchTotal = totalDelta != 0 ? batchTotalBytes.addAndGet(totalDelta) : batchTotalBytes.get();
+        callback.updateProgress(batchDownloadedBytes.addAndGet(downloadedDelta), batchTotal);
+    }
+
+    private void onComplete(int index, Path path, Throwable throwable) {
+        if (throwable == null) {
+            // Settle the download on its size on disk, whatever it reported
+            try {
+                long size = Files.size(path);
+                updateProgress(index, size, size);
+            } catch (IOException ignored) {
+            }
+        } else {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            failures.set(index, cause);
+            if (failureMode == Downloader.FailureMode.FAIL_FAST
+                    && future.completeExceptionally(new BatchDownloadException(Collections.singletonMap(requests.get(index), cause)))) {
+                cancelDownloads(true);
+            }
+        }
+
+        if (completed.incrementAndGet() == requests.size()) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        Map<DownloadRequest, Throwable> failed = new LinkedHashMap<>();
+        List<Path> paths = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Throwable failure = failures.get(i);
+            if (failure != null) {
+                failed.put(requests.get(i), failure);
+                paths.add(null);
+            } else {
+                paths.add(downloads.get(i).getFuture().join());
+            }
+        }
+
+        callback.flush();
+        if (failed.isEmpty()) {
+            future.complete(Collections.unmodifiableList(paths));
+        } else {
+            future.completeExceptionally(new BatchDownloadException(failed));
+        }
+    }
+
+    private void cancelDownloads(boolean mayInterruptIfRunning) {
+        for (int i = 0; i < downloads.length(); i++) {
+            DownloadImpl download = downloads.get(i);
+            if (download != null) {
+                download.cancel(mayInterruptIfRunning);
+            }
+        }
+    }
+
+    @Override
+    public @NotNull List<Downloader.Download<URL>> getDownloads() {
+        List<Downloader.Download<URL>> list = new ArrayList<>(downloads.length());
+        for (int i = 0; i < downloads.length(); i++) {
+            DownloadImpl download = downloads.get(i);
+            if (download != null) {
+                list.add(download);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public long getDownloadedBytes() {
+        return batchDownloadedBytes.get();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return batchTotalBytes.get();
+    }
+
+    @Override
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = future.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            cancelDownloads(mayInterruptIfRunning);
+        }
+
+        return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public List<Path> get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    @Override
+    public List<Path> get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+}
@@ -0,0 +1,122 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.Transport;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link Transport} of a single transfer, which keeps track of its open
+ * responses so that cancelling the transfer can abort them, failing any
+ * read blocked on them right away.
+ *
+ * @author xtrm
+ */
+class CancellableTransport implements Transport {
+
+    private final Transport delegate;
+    private final Set<Response> responses = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    CancellableTransport(Transport delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response send(URL url, String method, Map<String, String> headers) throws IOException {
+        checkCancelled(url);
+        TrackedResponse response = new TrackedResponse(delegate.send(url, method, headers));
+        responses.add(response);
+
+        // The transfer may have been cancelled while connecting
+        if (isCancelled()) {
+            response.abort();
+            checkCancelled(url);
+        }
+
+        return response;
+    }
+
+    /**
+     * Aborts every open response, and fails every request sent from now on.
+     */
+    void cancel() {
+        cancelled.countDown();
+        for (Response response : responses) {
+            response.abort();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+    /**
+     * Waits for {@code nanos} unless the transfer gets cancelled first.
+     *
+     * @return whether the transfer was cancelled
+     */
+    boolean awaitCancellation(long nanos) throws InterruptedException {
+        return cancelled.await(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void checkCancelled(URL url) throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Download from " + url + " was cancelled");
+        }
+    }
+
+    /**
+     * @author xtrm
+     */
+    private final class TrackedResponse implements Response {
+
+        private final Response response;
+
+        private TrackedResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public @Nullable String getHeader(String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.getContentLength();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return response.getBody();
+        }
+
+        @Override
+        public void close() {
+            responses.remove(this);
+            response.close();
+        }
+
+        @Override
+        public void abort() {
+            responses.remove(this);
+            response.abort();
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package dev.deftu.filestream.download;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Undoes the {@code Content-Encoding} of response bodies.
+ *
+ * @author xtrm
+ */
+class ContentDecoding {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentDecoding() {
+    }
+
+    /**
+     * @return whether bodies with the given {@code Content-Encoding} are
+     * stored as they were sent
+     */
+    static boolean isIdentity(@Nullable String contentEncoding) {
+        return contentEncoding == null || contentEncoding.trim().isEmpty()
+                || contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Wraps {@code inputStream} in a stream decoding the given
+     * {@code Content-Encoding}.
+     *
+     * @throws IOException if the encoding isn't supported
+     */
+    static InputStream decode(InputStream inputStream, @Nullable String contentEncoding) throws IOException {
+        if (isIdentity(contentEncoding)) {
+            return inputStream;
+        }
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(inputStream, BUFFER_SIZE);
+            case "deflate":
+                return inflate(inputStream);
+            default:
+                throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+        }
+    }
+
+    private static InputStream inflate(InputStream inputStream) throws IOException {
+        // "deflate" should be zlib wrapped, but plenty of servers send a
+        // raw deflate stream instead, tell them apart by the header
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            int n = pushbackInputStream.read(header, read, header.length - read);
+            if (n == -1) {
+                break;
+            }
+
+            read += n;
+        }
+
+        pushbackInputStream.unread(header, 0, read);
+        boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushbackInputStream, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+}
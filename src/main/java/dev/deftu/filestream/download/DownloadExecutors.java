@@ -0,0 +1,128 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.DownloaderConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author xtrm
+ */
+class DownloadExecutors {
+
+    private static final Logger logger = LogManager.getLogger();
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private DownloadExecutors() {
+    }
+
+    public static ExecutorService create(DownloaderConfig config) {
+        if (config.isVirtualThreads()) {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+
+            logger.warn("Virtual threads are not supported by this JVM, " +
+                    "falling back to a platform thread pool.");
+        }
+
+        int poolId = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new DownloadThread(runnable, poolId, threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                config.getThreads(), config.getThreads(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                threadFactory,
+                (runnable, pool) -> {
+                    // Apply back-pressure to the scheduling thread instead
+                    // of rejecting or running the download on it
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("Downloader has been closed");
+                    }
+
+                    // A worker waiting for room in its own queue could wait
+                    // forever, e.g. when it schedules a follow-up download
+                    // once its own ends, so it runs the task itself instead
+                    if (DownloadThread.isWorkerOf(poolId)) {
+                        runnable.run();
+                        return;
+                    }
+
+                    try {
+                        BlockingQueue<Runnable> queue = pool.getQueue();
+                        queue.put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the download queue", e);
+                    }
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the pool extra segments of segmented downloads run on. It is
+     * kept apart from the download pool, as downloads wait for their
+     * segments and could otherwise starve it.
+     */
+    public static ExecutorService createSegmentExecutor() {
+        int poolId = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FileStream Segment " + poolId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static @Nullable ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @author xtrm
+     */
+    private static final class DownloadThread extends Thread {
+
+        private final int poolId;
+
+        private DownloadThread(Runnable runnable, int poolId, int threadId) {
+            super(runnable, "FileStream Downloader " + poolId + "-" + threadId);
+            this.poolId = poolId;
+        }
+
+        /**
+         * @return whether the current thread is a worker of the given pool
+         */
+        static boolean isWorkerOf(int poolId) {
+            Thread thread = Thread.currentThread();
+            return thread instanceof DownloadThread && ((DownloadThread) thread).poolId == poolId;
+        }
+
+    }
+
+}
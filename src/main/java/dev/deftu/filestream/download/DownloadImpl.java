@@ -2,11 +2,13 @@ package dev.deftu.filestream.download;
 
 import dev.deftu.filestream.api.Downloader;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -16,11 +18,13 @@ import java.util.concurrent.TimeoutException;
 class DownloadImpl implements Downloader.Download<URL> {
 
     private final URL source;
-    private final Future<Path> future;
+    private final CompletableFuture<Path> future;
+    private final @Nullable InFlightDownload transfer;
 
-    DownloadImpl(URL source, Future<Path> future) {
+    DownloadImpl(URL source, CompletableFuture<Path> future, @Nullable InFlightDownload transfer) {
         this.source = source;
         this.future = future;
+        this.transfer = transfer;
     }
 
     @Override
@@ -28,9 +32,24 @@ class DownloadImpl implements Downloader.Download<URL> {
         return source;
     }
 
+    CompletableFuture<Path> getFuture() {
+        return future;
+    }
+
+    @Override
+    public @NotNull CompletionStage<Path> toCompletionStage() {
+        // A dependent stage, so that completing it doesn't complete this
+        return future.thenApply(path -> path);
+    }
+
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return future.cancel(mayInterruptIfRunning);
+        boolean cancelled = future.cancel(mayInterruptIfRunning);
+        if (cancelled && transfer != null) {
+            transfer.release();
+        }
+
+        return cancelled;
     }
 
     @Override
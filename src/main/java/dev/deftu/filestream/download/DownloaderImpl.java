@@ -1,23 +1,47 @@
 package dev.deftu.filestream.download;
 
+import dev.deftu.filestream.api.DownloadMetrics;
 import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.api.DownloadRequest;
+import dev.deftu.filestream.api.DownloaderConfig;
+import dev.deftu.filestream.api.HttpStatusException;
 import dev.deftu.filestream.api.Rewriter;
 import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.api.Transport;
+import dev.deftu.filestream.store.HashIndex;
+import dev.deftu.filestream.store.ObjectMetadata;
 import dev.deftu.filestream.util.HashingHelper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -30,67 +54,384 @@ public class DownloaderImpl implements Downloader {
     private static final boolean TRACE_BYTES = Boolean.getBoolean("filestream.debug.traceDownloadedBytes");
     private static final Logger logger = LogManager.getLogger();
 
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
     private final Store downloadStore;
+    private final DownloaderConfig config;
+    private final DownloadMetrics metrics;
+    private final Transport transport;
+    private final Executor executor;
+    private final @Nullable ExecutorService ownedExecutor;
+    private final ExecutorService segmentExecutor = DownloadExecutors.createSegmentExecutor();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final Map<Path, InFlightDownload> inFlight = new ConcurrentHashMap<>();
+    private final MirrorSelector mirrors = new MirrorSelector();
+    private final @Nullable HedgedRequests hedging;
+    private final Retries retries;
 
     public DownloaderImpl(Store downloadStore) {
+        this(downloadStore, DownloaderConfig.DEFAULT);
+    }
+
+    public DownloaderImpl(Store downloadStore, DownloaderConfig config) {
         this.downloadStore = downloadStore;
+        this.config = config;
+        this.metrics = config.getMetrics();
+        this.transport = config.getTransport();
+        this.retries = new Retries(config.getRetry());
+        this.hedging = config.getHedging() != null ? new HedgedRequests(config.getHedging(), segmentExecutor, new HedgeAdmission()) : null;
+
+        if (config.getExecutor() != null) {
+            this.executor = config.getExecutor();
+            this.ownedExecutor = null;
+        } else {
+            this.ownedExecutor = DownloadExecutors.create(config);
+            this.executor = this.ownedExecutor;
+        }
     }
 
     @Override
     public Download<URL> download(@NotNull URL url, @Nullable Path target, @Nullable HashProvider hashProvider, @Nullable DownloadCallback callback) {
-        return new DownloadImpl(url, CompletableFuture.supplyAsync(() -> {
-            logger.trace("Starting download of {}", url);
+        return submit(Collections.singletonList(url), target, hashProvider, callback);
+    }
+
+    @Override
+    public Download<URL> download(@NotNull DownloadRequest request, @Nullable DownloadCallback callback) {
+        return submit(request.getSources(), request.getTarget(), request.getHashProvider(), callback);
+    }
+
+    @Override
+    public Download<URL> download(@NotNull URL url, @NotNull Store store, @Nullable HashProvider hashProvider, @Nullable DownloadCallback callback) {
+        String targetName = HashingHelper.hash(url.toString(), HashingHelper.SHA256);
+        Path target = store.getStoreRoot().resolve(targetName);
+        return download(url, target, hashProvider, callback);
+    }
+
+    @Override
+    public BatchDownload downloadAll(@NotNull Collection<DownloadRequest> requests, @NotNull FailureMode failureMode, @Nullable DownloadCallback callback) {
+        List<DownloadRequest> requestList = new ArrayList<>(requests);
+        BatchDownloadImpl batch = new BatchDownloadImpl(requestList, failureMode, new ThrottledCallback(callback != null ? callback : DownloadCallback.NOOP, config));
+
+        Integer[] schedule = new Integer[requestList.size()];
+        for (int i = 0; i < schedule.length; i++) {
+            schedule[i] = i;
+        }
+
+        Arrays.sort(schedule, Comparator.comparing(requestList::get, DownloadRequest.SCHEDULING_ORDER));
+
+        logger.trace("Scheduling batch of {} downloads", schedule.length);
+        for (int index : schedule) {
+            if (batch.isDone()) {
+                logger.trace("Batch is done, not scheduling remaining downloads");
+                break;
+            }
+
+            DownloadRequest request = requestList.get(index);
+            DownloadImpl download;
+            try {
+                download = submit(request.getSources(), request.getTarget(), request.getHashProvider(), batch.createCallback(index));
+            } catch (RuntimeException e) {
+                // Still hand the failure to the batch, so that it completes
+                // and the downloads already scheduled can be cancelled
+                CompletableFuture<Path> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                download = new DownloadImpl(request.getUrl(), future, null);
+            }
+
+            batch.register(index, download);
+        }
+
+        return batch;
+    }
+
+    /**
+     * @param sources the {@link URL} to store the download under, followed
+     *                by its mirrors
+     */
+    private DownloadImpl submit(@NotNull List<URL> sources, @Nullable Path target, @Nullable HashProvider hashProvider, @Nullable DownloadCallback callback) {
+        URL url = sources.get(0);
+        Path downloadStoreObject;
+        try {
+            downloadStoreObject = downloadStore.getObject(url.toString());
+        } catch (RuntimeException e) {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return new DownloadImpl(url, future, null);
+        }
+
+        logger.trace("Download store object is {}", downloadStoreObject);
+
+        String hash = findHash(hashProvider);
+        InFlightDownload inFlightDownload;
+        while (true) {
+            InFlightDownload created = new InFlightDownload(hash, transport);
+            created.retain();
+            inFlightDownload = inFlight.putIfAbsent(downloadStoreObject, created);
+            if (inFlightDownload == null) {
+                inFlightDownload = created;
+                inFlightDownload.addCallback(callback);
+                start(created, sources, downloadStoreObject, hashProvider, null);
+                break;
+            }
 
-            Path downloadStoreObject = downloadStore.getObject(url.toString());
-            logger.trace("Download store object is {}", downloadStoreObject);
+            if (inFlightDownload.retain()) {
+                logger.trace("Joining in-flight download of {}", downloadStoreObject);
+                inFlightDownload.addCallback(callback);
+                break;
+            }
 
-            boolean needsLinking = target != null;
+            // The transfer was cancelled but is still winding down, take
+            // its place and start once it let go of the partial object
+            if (inFlight.replace(downloadStoreObject, inFlightDownload, created)) {
+                logger.trace("Restarting cancelled download of {}", downloadStoreObject);
+                created.addCallback(callback);
+                start(created, sources, downloadStoreObject, hashProvider, inFlightDownload.getFinished());
+                inFlightDownload = created;
+                break;
+            }
+        }
+
+        // The shared transfer was verified against the first request's
+        // hash, a joining request expecting another one has to check it
+        boolean needsVerification = hash != null && !hash.equalsIgnoreCase(inFlightDownload.getHash());
+        InFlightDownload transfer = inFlightDownload;
+        return new DownloadImpl(url, transfer.getFuture().thenApply(path -> {
+            if (needsVerification && !isValid(url, path, hashProvider)) {
+                throw new RuntimeException(
+                        "Hash mismatch for " + url + ", expected " + hash
+                );
+            }
 
-            if (!isValid(downloadStoreObject, hashProvider)) {
-                logger.trace("Invalid local object, downloading {} to {}", url, downloadStoreObject);
-                boolean success = downloadFile(url, downloadStoreObject, callback != null ? callback : DownloadCallback.NOOP);
-                logger.trace("Download of {} to {} was {}", url, downloadStoreObject, success ? "successful" : "unsuccessful");
+            if (target == null) {
+                logger.trace("No linking required, returning {}", path);
+                return path;
             }
 
-            if (!needsLinking) {
-                logger.trace("No linking required, returning {}", downloadStoreObject);
-                return downloadStoreObject;
+            return Rewriter.DEFAULT.rewrite(path, target);
+        }), transfer);
+    }
+
+    /**
+     * Schedules {@code transfer} on the executor.
+     *
+     * @param previous the cancelled transfer of the same object to wait
+     *                 for, if any
+     */
+    private void start(InFlightDownload transfer, List<URL> sources, Path downloadStoreObject, @Nullable HashProvider hashProvider, @Nullable CompletableFuture<Void> previous) {
+        URL url = sources.get(0);
+
+        // Keep the object from being evicted until every caller has linked
+        // it where it wants it
+        downloadStore.pin(downloadStoreObject);
+        long submittedAt = System.nanoTime();
+        ThrottledCallback progress = new ThrottledCallback(transfer, config);
+        Supplier<Path> task = () -> {
+            Path path = fetch(transfer.getTransport(), sources, downloadStoreObject, hashProvider, progress, submittedAt);
+            progress.complete(sizeOf(path));
+            return path;
+        };
+
+        try {
+            CompletableFuture<Path> future = previous == null
+                    ? CompletableFuture.supplyAsync(task, executor)
+                    : previous.thenApplyAsync(ignored -> task.get(), executor);
+            future.whenComplete((path, throwable) -> {
+                inFlight.remove(downloadStoreObject, transfer);
+                try {
+                    if (throwable != null) {
+                        if (!transfer.isCancelled()) {
+                            metrics.failed(url, throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                        }
+
+                        transfer.getFuture().completeExceptionally(throwable);
+                    } else {
+                        transfer.getFuture().complete(path);
+                    }
+                } finally {
+                    downloadStore.unpin(downloadStoreObject);
+                    transfer.getFinished().complete(null);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(downloadStoreObject, transfer);
+            downloadStore.unpin(downloadStoreObject);
+            transfer.getFinished().complete(null);
+            throw e;
+        }
+    }
+
+    private Path fetch(CancellableTransport transport, List<URL> sources, Path downloadStoreObject, @Nullable HashProvider hashProvider, DownloadCallback callback, long submittedAt) {
+        URL url = sources.get(0);
+        checkCancelled(transport, url);
+        logger.trace("Starting download of {}", url);
+        metrics.queued(url, System.nanoTime() - submittedAt);
+        if (isValid(url, downloadStoreObject, hashProvider)) {
+            metrics.cacheHit(url, sizeOf(downloadStoreObject));
+            return downloadStoreObject;
+        }
+
+        if (linkStoredContent(downloadStoreObject, hashProvider)) {
+            logger.trace("Content of {} is already in the store, linked it to {}", url, downloadStoreObject);
+            metrics.cacheHit(url, sizeOf(downloadStoreObject));
+            return downloadStoreObject;
+        }
+
+        // Without a hash, fall back to what the server told us about the
+        // object the last time we fetched it
+        ObjectMetadata cachedMetadata = findHash(hashProvider) == null ? findCachedMetadata(downloadStoreObject) : null;
+        if (cachedMetadata != null && isFresh(cachedMetadata)) {
+            logger.trace("Local object {} was fetched less than {} ago, skipping revalidation", downloadStoreObject, config.getMaxAge());
+            metrics.cacheHit(url, sizeOf(downloadStoreObject));
+            return downloadStoreObject;
+        }
+
+        logger.trace("Invalid local object, downloading {} to {}", url, downloadStoreObject);
+        RuntimeException failure = null;
+        Attempts attempts = new Attempts();
+        try {
+            List<URL> orderedSources = mirrors.order(sources);
+            for (int i = 0; i < orderedSources.size(); i++) {
+                URL source = orderedSources.get(i);
+                URL hedge = hedging != null && i + 1 < orderedSources.size() ? orderedSources.get(i + 1) : null;
+                for (int attempt = 1; ; attempt++) {
+                    int number = attempts.next();
+                    if (failure != null) {
+                        logger.trace("Attempt {} of {} from {}", attempt, url, source);
+                        metrics.retried(source, number, failure);
+                    }
+
+                    try {
+                        URL servedFrom = downloadFrom(transport, source, hedge, downloadStoreObject, hashProvider, cachedMetadata, callback, attempts);
+                        logger.trace("Download of {} from {} to {} was successful", url, servedFrom, downloadStoreObject);
+                        return downloadStoreObject;
+                    } catch (RuntimeException e) {
+                        checkCancelled(transport, url);
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+
+                        long delay = retries.getRetryDelay(e, attempt);
+                        if (delay < 0) {
+                            break;
+                        }
+
+                        logger.trace("Download of {} from {} failed, retrying in {}ms", url, source, TimeUnit.NANOSECONDS.toMillis(delay), e);
+                        sleep(transport, delay, url);
+                    }
+                }
+            }
+
+            throw failure;
+        } catch (CancellationException e) {
+            // Partial downloads are kept between attempts, not once the
+            // transfer is cancelled, e.g. while waiting to retry
+            Path tempObject = getTempObject(downloadStoreObject);
+            deletePartial(tempObject, ObjectMetadata.getSidecar(tempObject));
+            throw e;
+        } finally {
+            // However many attempts it took, it's a single miss
+            if (attempts.missed) {
+                metrics.cacheMiss(url);
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt at downloading from {@code source}, within the
+     * limits of its host.
+     *
+     * @return the source the object was served from
+     */
+    private URL downloadFrom(CancellableTransport transport, URL source, @Nullable URL hedge, Path storeObject, @Nullable HashProvider hashProvider, @Nullable ObjectMetadata cachedMetadata, DownloadCallback callback, Attempts attempts) {
+        if (!retries.tryEnter(source)) {
+            throw new RuntimeException(
+                    "Not downloading from " + source.getHost() + ", it failed too many times in a row"
+            );
+        }
+
+        Semaphore permits = getHostPermits(source);
+        acquire(permits, source);
+        attempts.servedFrom = source;
+        try {
+            URL servedFrom = downloadFile(transport, source, hedge, storeObject, hashProvider, cachedMetadata, callback, attempts);
+            retries.recordSuccess(servedFrom);
+            mirrors.recordSuccess(servedFrom);
+            return servedFrom;
+        } catch (RuntimeException e) {
+            // Aborted responses say nothing about the host, and a hedge
+            // which won is to blame for its own failures
+            if (!transport.isCancelled()) {
+                retries.recordFailure(attempts.servedFrom, e);
+                mirrors.recordFailure(attempts.servedFrom);
             }
 
-            return Rewriter.DEFAULT.rewrite(downloadStoreObject, target);
-        }));
+            throw e;
+        } finally {
+            permits.release();
+        }
     }
 
     @Override
-    public Download<URL> download(@NotNull URL url, @NotNull Store store, @Nullable HashProvider hashProvider, @Nullable DownloadCallback callback) {
-        String targetName = HashingHelper.hash(url.toString(), HashingHelper.SHA256);
-        Path target = store.getStoreRoot().resolve(targetName);
-        return download(url, target, hashProvider, callback);
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+
+        segmentExecutor.shutdown();
     }
 
-    private boolean downloadFile(URL url, Path storeObject, @NotNull DownloadCallback callback) {
-        logger.trace("Opening connection to {}", url);
-        HttpURLConnection httpURLConnection;
+    private Semaphore getHostPermits(URL url) {
+        String host = url.getHost() == null ? "" : url.getHost();
+        return hostPermits.computeIfAbsent(host, key -> new Semaphore(config.getMaxConnectionsPerHost()));
+    }
+
+    private static void sleep(CancellableTransport transport, long nanos, URL url) {
         try {
-            httpURLConnection = (HttpURLConnection) Networking.createConnection(url);
-        } catch (IOException e) {
+            if (transport.awaitCancellation(nanos)) {
+                checkCancelled(transport, url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(
-                    "Error while opening connection to " + url,
+                    "Interrupted while waiting to retry " + url,
                     e
             );
         }
+    }
 
-        long total = httpURLConnection.getContentLengthLong();
-        logger.trace("Connection opened, total size is {}", total);
+    private static void checkCancelled(CancellableTransport transport, URL url) {
+        if (transport.isCancelled()) {
+            throw new CancellationException("Download of " + url + " was cancelled");
+        }
+    }
 
-        logger.trace("Creating download store object");
+    private static void acquire(Semaphore permits, URL url) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "Interrupted while waiting for a connection to " + url.getHost(),
+                    e
+            );
+        }
+    }
+
+    /**
+     * @param hedge another source to send the request to as well if
+     *              {@code url} is slow to answer, see {@link HedgedRequests}
+     * @return the source the object was served from
+     */
+    private URL downloadFile(CancellableTransport transport, URL url, @Nullable URL hedge, Path storeObject, @Nullable HashProvider hashProvider, @Nullable ObjectMetadata cachedMetadata, @NotNull DownloadCallback callback, Attempts attempts) {
+        Path tempObject = getTempObject(storeObject);
+        Path tempMetadataFile = ObjectMetadata.getSidecar(tempObject);
         try {
             Files.createDirectories(storeObject.getParent());
-            if (Files.exists(storeObject)) {
-                logger.trace("Download store object already exists, deleting...");
-                Files.delete(storeObject);
-            }
-            Files.createFile(storeObject);
         } catch (IOException e) {
             throw new RuntimeException(
                     "Error while creating download store object " + storeObject,
@@ -98,81 +439,498 @@ public class DownloaderImpl implements Downloader {
             );
         }
 
-        logger.trace("Downloading {} to {}", url, storeObject);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (InputStream inputStream = httpURLConnection.getInputStream()) {
-            byte[] buffer = new byte[1024];
-            int read;
-            long totalRead = 0;
-            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-                if (TRACE_BYTES) {
-                    logger.trace("Read {}/{} total bytes", read, totalRead);
-                    StringBuilder stringBuilder = new StringBuilder();
-                    for (int i = 0; i < read; i++) {
-                        stringBuilder.append(String.format("%02X", buffer[i]));
-                    }
-                    logger.trace("buffer={}", stringBuilder.toString());
+        ObjectMetadata partialMetadata = findResumableMetadata(url, tempObject, tempMetadataFile);
+        long resumeFrom = 0;
+        if (partialMetadata != null) {
+            try {
+                resumeFrom = Files.size(tempObject);
+            } catch (IOException e) {
+                partialMetadata = null;
+            }
+        }
+
+        boolean revalidating = partialMetadata == null && cachedMetadata != null && cachedMetadata.hasValidator();
+        if (partialMetadata == null && !revalidating && config.getSegments() > 1) {
+            ObjectMetadata probedMetadata = SegmentedDownload.probe(transport, url, config.getSegmentThreshold());
+            if (probedMetadata != null) {
+                attempts.missed = true;
+                URL servedFrom = downloadSegmented(transport, url, storeObject, tempObject, probedMetadata, hashProvider, callback);
+                if (servedFrom != null) {
+                    return servedFrom;
                 }
-                byteArrayOutputStream.write(buffer, 0, read);
-                totalRead += read;
-                callback.updateProgress(totalRead, total);
             }
+        }
+
+        logger.trace("Opening connection to {}", url);
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (partialMetadata != null && resumeFrom > 0) {
+            logger.trace("Trying to resume download of {} from byte {}", url, resumeFrom);
+            headers.put("Range", "bytes=" + resumeFrom + "-");
+            headers.put("If-Range", partialMetadata.getValidator());
+            headers.put("Accept-Encoding", "identity");
+        } else if (revalidating) {
+            logger.trace("Revalidating local object {}", storeObject);
+            if (cachedMetadata.getEtag() != null) {
+                headers.put("If-None-Match", cachedMetadata.getEtag());
+            }
+
+            if (cachedMetadata.getLastModified() != null) {
+                headers.put("If-Modified-Since", cachedMetadata.getLastModified());
+            }
+        }
+
+        Transport.Response response;
+        long startedAt = System.nanoTime();
+        try {
+            if (hedging != null && hedge != null) {
+                HedgedRequests.Exchange exchange = hedging.send(transport, Arrays.asList(url, hedge), headers);
+                url = exchange.getSource();
+                attempts.servedFrom = url;
+                response = exchange.getResponse();
+            } else {
+                response = transport.send(url, "GET", headers);
+            }
+
+            metrics.connected(url, System.nanoTime() - startedAt);
         } catch (IOException e) {
             throw new RuntimeException(
-                    "Error while downloading " + url + " to " + storeObject,
+                    "Error while opening connection to " + url,
                     e
             );
+        }
+
+        int responseCode = response.getStatusCode();
+        if (resumeFrom > 0 && responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+            logger.trace("Partial download of {} is no longer valid, starting over", url);
+            response.close();
+            deletePartial(tempObject, tempMetadataFile);
+            metrics.retried(url, attempts.next(), null);
+            return downloadFile(transport, url, null, storeObject, hashProvider, cachedMetadata, callback, attempts);
+        }
+
+        if (revalidating && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            logger.trace("Local object {} is still current", storeObject);
+            response.close();
+            writeMetadata(storeObject, cachedMetadata.withFetchedAt(System.currentTimeMillis()));
+            metrics.revalidated(url, sizeOf(storeObject));
+            return url;
+        }
+
+        attempts.missed = true;
+
+        if (responseCode >= 400) {
+            String retryAfter = response.getHeader("Retry-After");
+            response.close();
+            throw new HttpStatusException(url, responseCode, retryAfter);
+        }
+
+        if (resumeFrom > 0 && (responseCode != HttpURLConnection.HTTP_PARTIAL || !isContentRangeFrom(response, resumeFrom))) {
+            logger.trace("Server ignored the range request, downloading {} from scratch", url);
+            resumeFrom = 0;
+        }
+
+        // An encoded body can only be decoded from its start, so it can't
+        // extend a partial download
+        String contentEncoding = response.getHeader("Content-Encoding");
+        boolean encoded = !ContentDecoding.isIdentity(contentEncoding);
+        if (encoded && resumeFrom > 0) {
+            logger.trace("Server sent {} encoded content, downloading {} from scratch", contentEncoding, url);
+            resumeFrom = 0;
+        }
+
+        // Progress is reported in bytes over the wire, which is all the
+        // Content-Length tells about when the body is encoded
+        long contentLength = response.getContentLength();
+        long total = contentLength < 0 ? -1 : resumeFrom + contentLength;
+        logger.trace("Connection opened, total size is {}{}", total, encoded ? " (" + contentEncoding + " encoded)" : "");
+
+        ObjectMetadata metadata = new ObjectMetadata(
+                url.toString(),
+                response.getHeader("ETag"),
+                response.getHeader("Last-Modified"),
+                encoded ? -1 : total,
+                System.currentTimeMillis()
+        );
+        if (resumeFrom > 0 && metadata.getValidator() == null) {
+            metadata = partialMetadata;
+        }
+
+        // Only keep partial downloads around if we'll be able to tell
+        // whether they're still current when resuming them
+        boolean resumable = metadata.getValidator() != null && !encoded;
+        try {
+            if (resumable) {
+                metadata.write(tempMetadataFile);
+            } else {
+                Files.deleteIfExists(tempMetadataFile);
+            }
+        } catch (IOException e) {
+            logger.warn("Couldn't write metadata of partial download {}", tempObject, e);
+            resumable = false;
+        }
+
+        // The digest outlives calls into the callback, so it must not be
+        // a shared or thread-local instance
+        MessageDigest hashingFunction = findDigest(hashProvider);
+        MessageDigest messageDigest = hashingFunction != null
+                ? HashingHelper.findDigest(hashingFunction.getAlgorithm())
+                : null;
+        String contentAlgorithm = downloadStore.getContentAlgorithm();
+        MessageDigest contentDigest = contentAlgorithm != null && (messageDigest == null || !contentAlgorithm.equalsIgnoreCase(messageDigest.getAlgorithm()))
+                ? HashingHelper.findDigest(contentAlgorithm)
+                : null;
+
+        long totalWritten = resumeFrom;
+        long totalRead = resumeFrom;
+        long wireBytes = 0;
+        long hashingNanos = 0;
+        boolean committed = false;
+        boolean corrupted = false;
+        try {
+            if (resumeFrom > 0 && (messageDigest != null || contentDigest != null)) {
+                logger.trace("Hashing already downloaded part of {}", tempObject);
+                long hashingStartedAt = System.nanoTime();
+                try {
+                    if (messageDigest != null) {
+                        HashingHelper.update(messageDigest, tempObject);
+                    }
+
+                    if (contentDigest != null) {
+                        HashingHelper.update(contentDigest, tempObject);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Error while hashing partial download " + tempObject,
+                            e
+                    );
+                }
+
+                hashingNanos += System.nanoTime() - hashingStartedAt;
+            }
+
+            logger.trace("Downloading {} to {}", url, tempObject);
+            try (
+                    CountingInputStream wireInputStream = new CountingInputStream(response.getBody());
+                    InputStream inputStream = ContentDecoding.decode(wireInputStream, contentEncoding);
+                    FileChannel channel = resumeFrom > 0
+                            ? FileChannel.open(tempObject, StandardOpenOption.WRITE)
+                            : FileChannel.open(tempObject, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+            ) {
+                channel.position(resumeFrom);
+
+                byte[] buffer = BUFFER.get();
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int read;
+                while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                    if (TRACE_BYTES && logger.isTraceEnabled()) {
+                        logger.trace("Read {}/{} total bytes", read, totalWritten);
+                        logger.trace("buffer={}", HashingHelper.toHexString(Arrays.copyOf(buffer, read)));
+                    }
+
+                    byteBuffer.clear();
+                    byteBuffer.limit(read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+
+                    if (messageDigest != null || contentDigest != null) {
+                        long hashingStartedAt = System.nanoTime();
+                        if (messageDigest != null) {
+                            messageDigest.update(buffer, 0, read);
+                        }
+
+                        if (contentDigest != null) {
+                            contentDigest.update(buffer, 0, read);
+                        }
+
+                        hashingNanos += System.nanoTime() - hashingStartedAt;
+                    }
+
+                    totalWritten += read;
+                    totalRead = resumeFrom + wireInputStream.getCount();
+                    callback.updateProgress(totalRead, total);
+                }
+
+                if (encoded) {
+                    // The decoder may stop before the end of the body, e.g.
+                    // at a trailer, still account for the whole of it
+                    while (wireInputStream.read(buffer, 0, buffer.length) != -1) {
+                        // Drain
+                    }
+
+                    totalRead = wireInputStream.getCount();
+                    callback.updateProgress(totalRead, total);
+                }
+
+                wireBytes = wireInputStream.getCount();
+                if (total >= 0 && totalRead != total) {
+                    throw new IOException("Connection closed after " + totalRead + " of " + total + " bytes");
+                }
+
+                // Make sure the content is on disk before the rename makes
+                // it visible, or a crash could leave a truncated object
+                channel.force(true);
+            } catch (IOException e) {
+                throw new RuntimeException(
+                        "Error while downloading " + url + " to " + tempObject,
+                        e
+                );
+            } finally {
+                response.close();
+            }
+
+            String contentHash = null;
+            if (messageDigest != null) {
+                String expectedHash = hashProvider.getHash();
+                String computedHash = HashingHelper.toHexString(messageDigest.digest());
+                logger.trace("Computed hash of {} is {}", tempObject, computedHash);
+                if (!computedHash.equalsIgnoreCase(expectedHash)) {
+                    corrupted = true;
+                    throw new RuntimeException(
+                            "Hash mismatch for " + url + ", expected " + expectedHash + " but got " + computedHash
+                    );
+                }
+
+                contentHash = computedHash;
+            }
+
+            if (contentDigest != null) {
+                contentHash = HashingHelper.toHexString(contentDigest.digest());
+            }
+
+            commit(tempObject, storeObject, contentAlgorithm != null ? contentHash : null);
+            committed = true;
+            if (messageDigest != null) {
+                recordVerified(storeObject, messageDigest.getAlgorithm(), hashProvider.getHash());
+            }
+
+            long transferNanos = System.nanoTime() - startedAt;
+            metrics.transferred(url, wireBytes, totalWritten - resumeFrom, transferNanos);
+            mirrors.recordTransfer(url, wireBytes, transferNanos);
+            if (messageDigest != null || contentDigest != null) {
+                metrics.hashed(url, totalWritten, hashingNanos);
+            }
         } finally {
-            httpURLConnection.disconnect();
+            response.close();
+            if (committed || corrupted || !resumable || transport.isCancelled()) {
+                deletePartial(tempObject, tempMetadataFile);
+            } else {
+                logger.trace("Keeping partial download {} to resume later", tempObject);
+            }
         }
 
+        writeMetadata(storeObject, new ObjectMetadata(
+                metadata.getSource(),
+                metadata.getEtag(),
+                metadata.getLastModified(),
+                totalWritten,
+                metadata.getFetchedAt()
+        ));
+
+        return url;
+    }
+
+    /**
+     * @return the source the object was served from, or {@code null} if the
+     * server didn't honor the range requests and the object should be
+     * downloaded in one piece instead
+     */
+    private @Nullable URL downloadSegmented(CancellableTransport transport, URL url, Path storeObject, Path tempObject, ObjectMetadata metadata, @Nullable HashProvider hashProvider, @NotNull DownloadCallback callback) {
+        // The download already holds one connection to the host, only use
+        // as many more as the per-host limit allows right now
+        Semaphore permits = getHostPermits(url);
+        int extraPermits = 0;
+        while (extraPermits < config.getSegments() - 1 && permits.tryAcquire()) {
+            extraPermits++;
+        }
+
+        int segments = extraPermits + 1;
+        logger.trace("Downloading {} to {} in {} segments", url, tempObject, segments);
+
+        boolean committed = false;
+        long startedAt = System.nanoTime();
         try {
-            byte[] bytes = byteArrayOutputStream.toByteArray();
-            if (TRACE_BYTES) {
-                logger.trace("Writing {} bytes to {}", bytes.length, storeObject);
-                StringBuilder stringBuilder = new StringBuilder();
-                for (byte b : bytes) {
-                    stringBuilder.append(String.format("%02X", b));
+            new SegmentedDownload(transport, url, tempObject, metadata, segments, segmentExecutor, callback).run();
+
+            // Segments arrive out of order, so the digest can only be
+            // computed once the whole file is there
+            MessageDigest messageDigest = findDigest(hashProvider);
+            String contentHash = null;
+            if (messageDigest != null) {
+                String expectedHash = hashProvider.getHash();
+                long hashingStartedAt = System.nanoTime();
+                String computedHash = HashingHelper.hash(tempObject, messageDigest);
+                metrics.hashed(url, metadata.getSize(), System.nanoTime() - hashingStartedAt);
+                logger.trace("Computed hash of {} is {}", tempObject, computedHash);
+                if (!computedHash.equalsIgnoreCase(expectedHash)) {
+                    throw new RuntimeException(
+                            "Hash mismatch for " + url + ", expected " + expectedHash + " but got " + computedHash
+                    );
+                }
+
+                if (messageDigest.getAlgorithm().equalsIgnoreCase(downloadStore.getContentAlgorithm())) {
+                    contentHash = computedHash;
                 }
+            }
 
-                logger.trace("buffer={}", stringBuilder.toString());
+            commit(tempObject, storeObject, contentHash);
+            committed = true;
+            long transferNanos = System.nanoTime() - startedAt;
+            metrics.transferred(url, metadata.getSize(), metadata.getSize(), transferNanos);
+            mirrors.recordTransfer(url, metadata.getSize(), transferNanos);
+            writeMetadata(storeObject, metadata);
+            if (messageDigest != null) {
+                recordVerified(storeObject, messageDigest.getAlgorithm(), hashProvider.getHash());
             }
-            Files.write(storeObject, bytes);
+        } catch (SegmentedDownload.RangeNotHonoredException e) {
+            logger.trace("{} doesn't honor range requests, downloading it in one piece", url, e);
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Error while downloading " + url + " to " + tempObject,
+                    e
+            );
+        } finally {
+            permits.release(extraPermits);
+            if (!committed) {
+                deletePartial(tempObject, ObjectMetadata.getSidecar(tempObject));
+            }
+        }
+
+        return url;
+    }
+
+    /**
+     * @return the {@link ObjectMetadata} of an existing store object, or
+     * {@code null} if there is none or it doesn't describe the object anymore
+     */
+    private static @Nullable ObjectMetadata findCachedMetadata(Path storeObject) {
+        if (!Files.exists(storeObject)) {
+            return null;
+        }
+
+        ObjectMetadata metadata = ObjectMetadata.read(ObjectMetadata.getSidecar(storeObject));
+        try {
+            if (metadata == null || (metadata.getSize() >= 0 && metadata.getSize() != Files.size(storeObject))) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return metadata;
+    }
+
+    private boolean isFresh(ObjectMetadata metadata) {
+        long maxAge = config.getMaxAge().toMillis();
+        return maxAge > 0 && System.currentTimeMillis() - metadata.getFetchedAt() < maxAge;
+    }
+
+    private static void writeMetadata(Path storeObject, ObjectMetadata metadata) {
+        try {
+            metadata.write(ObjectMetadata.getSidecar(storeObject));
+        } catch (IOException e) {
+            logger.warn("Couldn't write metadata of {}", storeObject, e);
+        }
+    }
+
+    /**
+     * @return the {@link ObjectMetadata} of a partial download of {@code url}
+     * which can be resumed, or {@code null} if there is none
+     */
+    private static @Nullable ObjectMetadata findResumableMetadata(URL url, Path tempObject, Path tempMetadataFile) {
+        if (!Files.exists(tempObject)) {
+            return null;
+        }
+
+        ObjectMetadata metadata = ObjectMetadata.read(tempMetadataFile);
+        if (metadata == null || metadata.getValidator() == null || !url.toString().equals(metadata.getSource())) {
+            return null;
+        }
+
+        return metadata;
+    }
+
+    private static boolean isContentRangeFrom(Transport.Response response, long start) {
+        // e.g. "bytes 1000-4999/5000"
+        String contentRange = response.getHeader("Content-Range");
+        return contentRange != null && contentRange.trim().startsWith("bytes " + start + "-");
+    }
+
+    private static Path getTempObject(Path storeObject) {
+        return storeObject.resolveSibling(storeObject.getFileName() + PARTIAL_SUFFIX);
+    }
+
+    private static void deletePartial(Path tempObject, Path tempMetadataFile) {
+        try {
+            Files.deleteIfExists(tempObject);
+            Files.deleteIfExists(tempMetadataFile);
+        } catch (IOException e) {
+            logger.warn("Couldn't delete temporary download object {}", tempObject, e);
+        }
+    }
+
+    /**
+     * Hands {@code tempObject} over to the store as {@code storeObject}, so
+     * readers only ever see a complete object or none at all.
+     */
+    private void commit(Path tempObject, Path storeObject, @Nullable String contentHash) {
+        logger.trace("Moving {} to {}", tempObject, storeObject);
+        try {
+            downloadStore.commit(tempObject, storeObject, contentHash);
         } catch (IOException e) {
             throw new RuntimeException(
-                    "Error while writing to " + storeObject,
+                    "Error while moving " + tempObject + " to " + storeObject,
                     e
             );
         }
+    }
 
-        return true;
+    /**
+     * @return whether the store already held the expected content and
+     * linked it to {@code storeObject}
+     */
+    private boolean linkStoredContent(Path storeObject, @Nullable HashProvider hashProvider) {
+        MessageDigest messageDigest = findDigest(hashProvider);
+        if (messageDigest == null || downloadStore.getContentAlgorithm() == null) {
+            return false;
+        }
+
+        try {
+            return downloadStore.linkContent(storeObject, messageDigest.getAlgorithm(), hashProvider.getHash());
+        } catch (IOException e) {
+            logger.warn("Couldn't link stored content to {}", storeObject, e);
+            return false;
+        }
     }
 
-    private boolean isValid(@NotNull Path target, @Nullable HashProvider hashProvider) {
+    private boolean isValid(@NotNull URL url, @NotNull Path target, @Nullable HashProvider hashProvider) {
         logger.trace("Checking if {} is valid", target);
         if (!Files.exists(target)) {
             logger.trace("{} does not exist, invalid", target);
             return false;
         }
 
-        if (hashProvider == null) {
-            logger.trace("No hash provider, assuming invalid");
+        MessageDigest messageDigest = findDigest(hashProvider);
+        if (messageDigest == null) {
+            logger.trace("No hash provider, hash or hashing function, assuming invalid");
             return false;
         }
 
         String hash = hashProvider.getHash();
-        Supplier<MessageDigest> hashingFunction = hashProvider.getHashingFunction();
-        if (hash == null || hashingFunction == null) {
-            logger.trace("No hash or hashing function, assuming invalid");
-            return false;
-        }
-
         logger.trace("Hash provider for {} returned {}", target, hash);
 
+        HashIndex hashIndex = downloadStore.getHashIndex();
+        if (hashIndex != null && hashIndex.isVerified(target, messageDigest.getAlgorithm(), hash)) {
+            logger.trace("{} is unchanged since it was last verified, valid", target);
+            return true;
+        }
+
         String computedHash;
+        long hashingStartedAt = System.nanoTime();
         try {
-            MessageDigest messageDigest = hashingFunction.get();
             computedHash = HashingHelper.hash(target, messageDigest);
+            metrics.hashed(url, Files.size(target), System.nanoTime() - hashingStartedAt);
         } catch (IOException e) {
             throw new RuntimeException(
                     "Error while computing hash of " + target,
@@ -181,9 +939,103 @@ public class DownloaderImpl implements Downloader {
         }
 
         logger.trace("Computed hash of {} is {}", target, computedHash);
-        boolean valid = hash.equals(computedHash);
+        boolean valid = hash.equalsIgnoreCase(computedHash);
         logger.trace("Hash is {}valid", valid ? "" : "in");
+        if (valid) {
+            recordVerified(target, messageDigest.getAlgorithm(), computedHash);
+        }
+
         return valid;
     }
 
+    /**
+     * @return the size of {@code path}, or {@code -1} if it can't be read
+     */
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void recordVerified(Path storeObject, String algorithm, String hash) {
+        HashIndex hashIndex = downloadStore.getHashIndex();
+        if (hashIndex != null) {
+            hashIndex.record(storeObject, algorithm, hash);
+        }
+    }
+
+    private static @Nullable String findHash(@Nullable HashProvider hashProvider) {
+        if (hashProvider == null || hashProvider.getHashingFunction() == null) {
+            return null;
+        }
+
+        return hashProvider.getHash();
+    }
+
+    /**
+     * @return the {@link MessageDigest} to verify downloads with, or
+     * {@code null} if the {@link HashProvider} can't verify anything
+     */
+    private static @Nullable MessageDigest findDigest(@Nullable HashProvider hashProvider) {
+        if (hashProvider == null) {
+            return null;
+        }
+
+        Supplier<MessageDigest> hashingFunction = hashProvider.getHashingFunction();
+        if (hashProvider.getHash() == null || hashingFunction == null) {
+            return null;
+        }
+
+        return hashingFunction.get();
+    }
+
+    /**
+     * Holds hedges to the same limits as any other request: a free
+     * connection to their host and a closed circuit breaker.
+     *
+     * @author xtrm
+     */
+    private final class HedgeAdmission implements HedgedRequests.Admission {
+
+        @Override
+        public boolean tryAcquire(URL source) {
+            if (!retries.tryEnter(source)) {
+                return false;
+            }
+
+            return getHostPermits(source).tryAcquire();
+        }
+
+        @Override
+        public void release(URL source) {
+            getHostPermits(source).release();
+        }
+
+    }
+
+    /**
+     * What the attempts at a single transfer have in common.
+     *
+     * @author xtrm
+     */
+    private static final class Attempts {
+
+        private int count;
+        // Whether the store object turned out to be missing or outdated
+        private boolean missed;
+        // The source answering the current attempt, which may be its hedge
+        private URL servedFrom;
+
+        /**
+         * @return the number of the attempt about to be made, starting at
+         * {@code 1}
+         */
+        int next() {
+            return ++count;
+        }
+
+    }
+
 }
@@ -0,0 +1,340 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.HedgingPolicy;
+import dev.deftu.filestream.api.Transport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Sends requests following a {@link HedgingPolicy}: when the first source
+ * is slow to answer, the second one is asked too, and whichever answers
+ * first wins. The slower response is aborted as soon as it arrives.
+ * </p>
+ * <p>
+ * Hedges are paid for with tokens, each request adding
+ * {@link HedgingPolicy#getBudget()} of one, which caps hedges to that share
+ * of requests over time. They must also be let through by an
+ * {@link Admission}, which holds the second source to the same limits as
+ * any other request.
+ * </p>
+ *
+ * @author xtrm
+ */
+class HedgedRequests {
+
+    private static final Logger logger = LogManager.getLogger();
+    private static final int MAX_SAMPLES = 256;
+    private static final int MIN_SAMPLES = 16;
+    private static final double MAX_TOKENS = 10;
+
+    private final HedgingPolicy policy;
+    private final Executor executor;
+    private final Admission admission;
+
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private double tokens = 1;
+
+    HedgedRequests(HedgingPolicy policy, Executor executor, Admission admission) {
+        this.policy = policy;
+        this.executor = executor;
+        this.admission = admission;
+    }
+
+    /**
+     * Sends a {@code GET} request to {@code sources.get(0)}, hedged with
+     * {@code sources.get(1)} if there is one.
+     *
+     * @return the first {@link Exchange} to get an answer
+     */
+    Exchange send(Transport transport, List<URL> sources, Map<String, String> headers) throws IOException {
+        if (sources.size() < 2) {
+            return new Exchange(sources.get(0), transport.send(sources.get(0), "GET", headers));
+        }
+
+        addTokens();
+        Race race = new Race(transport, headers);
+        race.start(sources.get(0), false);
+
+        long delay = getDelayNanos();
+        Exchange exchange = race.await(delay);
+        if (exchange != null) {
+            return exchange;
+        }
+
+        URL hedge = sources.get(1);
+        if (!admission.tryAcquire(hedge)) {
+            logger.trace("Not hedging with {}, its host can't take another request", hedge);
+        } else if (!tryTakeToken()) {
+            admission.release(hedge);
+        } else {
+            logger.trace("No answer from {} after {}ms, hedging with {}", sources.get(0), TimeUnit.NANOSECONDS.toMillis(delay), hedge);
+            race.start(hedge, true);
+        }
+
+        return race.await(-1);
+    }
+
+    /**
+     * @return how long to wait for an answer before hedging
+     */
+    synchronized long getDelayNanos() {
+        long delay = policy.getDelay().toNanos();
+        if (policy.getPercentile() <= 0 || sampleCount < MIN_SAMPLES) {
+            return delay;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(policy.getPercentile() * sorted.length) - 1;
+        return Math.max(delay, sorted[Math.max(0, index)]);
+    }
+
+    private synchronized void recordSample(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % MAX_SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, MAX_SAMPLES);
+    }
+
+    private synchronized void addTokens() {
+        tokens = Math.min(MAX_TOKENS, tokens + policy.getBudget());
+    }
+
+    private synchronized boolean tryTakeToken() {
+        if (tokens < 1) {
+            logger.trace("Hedging budget exhausted");
+            return false;
+        }
+
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Decides whether a hedge may be sent to a source, e.g. whether its host
+     * has a free connection.
+     *
+     * @author xtrm
+     */
+    interface Admission {
+
+        /**
+         * @return whether a request may be sent to {@code source}, in which
+         * case {@link #release(URL)} is called once it is done
+         */
+        boolean tryAcquire(URL source);
+
+        void release(URL source);
+
+    }
+
+    /**
+     * A response and the source it came from.
+     *
+     * @author xtrm
+     */
+    static final class Exchange {
+
+        private final URL source;
+        private final Transport.Response response;
+
+        private Exchange(URL source, Transport.Response response) {
+            this.source = source;
+            this.response = response;
+        }
+
+        URL getSource() {
+            return source;
+        }
+
+        Transport.Response getResponse() {
+            return response;
+        }
+
+    }
+
+    /**
+     * Requests racing for the same answer.
+     *
+     * @author xtrm
+     */
+    private final class Race {
+
+        private final Transport transport;
+        private final Map<String, String> headers;
+        private final CompletableFuture<Exchange> winner = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private Exception failure;
+
+        private Race(Transport transport, Map<String, String> headers) {
+            this.transport = transport;
+            this.headers = headers;
+        }
+
+        /**
+         * @param admitted whether the request was let through by the
+         *                 {@link Admission}, which its response releases
+         */
+        void start(URL source, boolean admitted) {
+            pending.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        long startedAt = System.nanoTime();
+                        Transport.Response response = transport.send(source, "GET", headers);
+                        recordSample(System.nanoTime() - startedAt);
+                        if (admitted) {
+                            response = new AdmittedResponse(source, response);
+                        }
+
+                        if (!winner.complete(new Exchange(source, response))) {
+                            logger.trace("Aborting slower request to {}", source);
+                            response.abort();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (admitted) {
+                            admission.release(source);
+                        }
+
+                        fail(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (admitted) {
+                    admission.release(source);
+                }
+
+                fail(e);
+            }
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+
+            // Only fail once no request can answer anymore
+            if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(failure);
+            }
+        }
+
+        /**
+         * @param timeout how long to wait in nanoseconds, or {@code -1} to
+         *                wait until a request answered or all failed
+         * @return the winning {@link Exchange}, or {@code null} if none
+         * answered in time
+         */
+        Exchange await(long timeout) throws IOException {
+            try {
+                return timeout < 0 ? winner.get() : winner.get(timeout, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Responses still on their way get aborted, as does one
+                // which just won
+                winner.cancel(false);
+                winner.thenAccept(exchange -> exchange.getResponse().abort());
+                throw new InterruptedIOException("Interrupted while waiting for an answer");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+
+                throw new IOException(cause);
+            }
+        }
+
+    }
+
+    /**
+     * A response releasing its {@link Admission} once it is closed or
+     * aborted.
+     *
+     * @author xtrm
+     */
+    private final class AdmittedResponse implements Transport.Response {
+
+        private final URL source;
+        private final Transport.Response response;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private AdmittedResponse(URL source, Transport.Response response) {
+            this.source = source;
+            this.response = response;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public @Nullable String getHeader(String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.getContentLength();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return response.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void abort() {
+            try {
+                response.abort();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                admission.release(source);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.api.Transport;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A transfer into a store object, shared by every request for that object
+ * made while it is running.
+ * </p>
+ * <p>
+ * Every request joining it holds a reference, and the transfer is only
+ * cancelled once each of them cancelled its download.
+ * </p>
+ *
+ * @author xtrm
+ */
+class InFlightDownload implements Downloader.DownloadCallback {
+
+    private final CompletableFuture<Path> future = new CompletableFuture<>();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private final List<Downloader.DownloadCallback> callbacks = new CopyOnWriteArrayList<>();
+    private final @Nullable String hash;
+    private final CancellableTransport transport;
+    private final AtomicInteger references = new AtomicInteger();
+
+    InFlightDownload(@Nullable String hash, Transport transport) {
+        this.hash = hash;
+        this.transport = new CancellableTransport(transport);
+    }
+
+    CompletableFuture<Path> getFuture() {
+        return future;
+    }
+
+    /**
+     * @return a future completing once the transfer stopped running, even
+     * when it was cancelled before
+     */
+    CompletableFuture<Void> getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the {@link Transport} to send the transfer's requests with
+     */
+    CancellableTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Adds a reference for a request joining the transfer.
+     *
+     * @return {@code false} if the transfer was already cancelled, and
+     * can't be joined anymore
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count < 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+
+        return true;
+    }
+
+    /**
+     * Drops the reference of a request which cancelled its download,
+     * cancelling the transfer if it was the last one.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0 && references.compareAndSet(0, -1)) {
+            future.cancel(false);
+            transport.cancel();
+        }
+    }
+
+    boolean isCancelled() {
+        return references.get() < 0;
+    }
+
+    /**
+     * @return the hash this transfer is verified against, if any
+     */
+    @Nullable String getHash() {
+        return hash;
+    }
+
+    void addCallback(@Nullable Downloader.DownloadCallback callback) {
+        if (callback != null && callback != Downloader.DownloadCallback.NOOP) {
+            callbacks.add(callback);
+        }
+    }
+
+    @Override
+    public void updateProgress(long downloaded, long total) {
+        for (Downloader.DownloadCallback callback : callbacks) {
+            callback.updateProgress(downloaded, total);
+        }
+    }
+
+}
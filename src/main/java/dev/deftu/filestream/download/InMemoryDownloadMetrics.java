@@ -0,0 +1,249 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.DownloadMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link DownloadMetrics} adding everything up in memory, to be polled
+ * or dumped with {@link #toJson()}. Recording never blocks.
+ *
+ * @author xtrm
+ */
+public class InMemoryDownloadMetrics implements DownloadMetrics {
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder cachedBytes = new LongAdder();
+    private final LongAdder hashedBytes = new LongAdder();
+    private final Timer queueWait = new Timer();
+    private final Timer timeToFirstByte = new Timer();
+    private final Timer transferTime = new Timer();
+    private final Timer hashTime = new Timer();
+
+    @Override
+    public void queued(@NotNull URL url, long queueWait) {
+        this.queueWait.record(queueWait);
+    }
+
+    @Override
+    public void cacheHit(@NotNull URL url, long bytes) {
+        cacheHits.increment();
+        cachedBytes.add(Math.max(bytes, 0));
+    }
+
+    @Override
+    public void revalidated(@NotNull URL url, long bytes) {
+        revalidations.increment();
+        cachedBytes.add(Math.max(bytes, 0));
+    }
+
+    @Override
+    public void cacheMiss(@NotNull URL url) {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void connected(@NotNull URL url, long timeToFirstByte) {
+        this.timeToFirstByte.record(timeToFirstByte);
+    }
+
+    @Override
+    public void transferred(@NotNull URL url, long wireBytes, long storedBytes, long duration) {
+        transfers.increment();
+        this.wireBytes.add(wireBytes);
+        this.storedBytes.add(storedBytes);
+        transferTime.record(duration);
+    }
+
+    @Override
+    public void hashed(@NotNull URL url, long bytes, long duration) {
+        hashedBytes.add(bytes);
+        hashTime.record(duration);
+    }
+
+    @Override
+    public void retried(@NotNull URL url, int attempt, @Nullable Throwable cause) {
+        retries.increment();
+    }
+
+    @Override
+    public void failed(@NotNull URL url, @NotNull Throwable cause) {
+        failures.increment();
+    }
+
+    /**
+     * @return the downloads served from the store without transferring
+     * anything
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the downloads served from the store after the server
+     * confirmed them
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getTransfers() {
+        return transfers.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getWireBytes() {
+        return wireBytes.sum();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes.sum();
+    }
+
+    public long getHashedBytes() {
+        return hashedBytes.sum();
+    }
+
+    /**
+     * @return the average transfer speed, in bytes over the wire per second
+     */
+    public double getThroughput() {
+        long nanos = transferTime.total.sum();
+        return nanos == 0 ? 0 : wireBytes.sum() * 1e9 / nanos;
+    }
+
+    public @NotNull Timer getQueueWait() {
+        return queueWait;
+    }
+
+    public @NotNull Timer getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public @NotNull Timer getTransferTime() {
+        return transferTime;
+    }
+
+    public @NotNull Timer getHashTime() {
+        return hashTime;
+    }
+
+    public void reset() {
+        cacheHits.reset();
+        revalidations.reset();
+        cacheMisses.reset();
+        transfers.reset();
+        failures.reset();
+        retries.reset();
+        wireBytes.reset();
+        storedBytes.reset();
+        cachedBytes.reset();
+        hashedBytes.reset();
+        queueWait.reset();
+        timeToFirstByte.reset();
+        transferTime.reset();
+        hashTime.reset();
+    }
+
+    public @NotNull String toJson() {
+        return "{"
+                + "\"cacheHits\":" + getCacheHits()
+                + ",\"revalidations\":" + getRevalidations()
+                + ",\"cacheMisses\":" + getCacheMisses()
+                + ",\"transfers\":" + getTransfers()
+                + ",\"failures\":" + getFailures()
+                + ",\"retries\":" + getRetries()
+                + ",\"wireBytes\":" + getWireBytes()
+                + ",\"storedBytes\":" + getStoredBytes()
+                + ",\"cachedBytes\":" + getCachedBytes()
+                + ",\"hashedBytes\":" + getHashedBytes()
+                + ",\"throughput\":" + String.format(Locale.ROOT, "%.1f", getThroughput())
+                + ",\"queueWait\":" + queueWait.toJson()
+                + ",\"timeToFirstByte\":" + timeToFirstByte.toJson()
+                + ",\"transferTime\":" + transferTime.toJson()
+                + ",\"hashTime\":" + hashTime.toJson()
+                + "}";
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Adds up durations, in nanoseconds.
+     *
+     * @author xtrm
+     */
+    public static final class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        private void reset() {
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotal() {
+            return total.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long count = this.count.sum();
+            return count == 0 ? 0 : total.sum() / count;
+        }
+
+        private String toJson() {
+            return "{\"count\":" + getCount()
+                    + ",\"meanMillis\":" + String.format(Locale.ROOT, "%.3f", getMean() / 1e6)
+                    + ",\"maxMillis\":" + String.format(Locale.ROOT, "%.3f", getMax() / 1e6)
+                    + "}";
+        }
+
+    }
+
+}
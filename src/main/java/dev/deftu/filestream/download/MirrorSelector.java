@@ -0,0 +1,138 @@
+package dev.deftu.filestream.download;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Orders the sources of a download by how well their hosts did so far.
+ * </p>
+ * <p>
+ * Each host keeps a moving average of its throughput and error rate.
+ * Healthy hosts come first, fastest first; a host seen failing most of
+ * its recent transfers is tried last until it gets some time to recover.
+ * Hosts without any measurement tie with the best one, so the order given
+ * by the caller decides between them.
+ * </p>
+ *
+ * @author xtrm
+ */
+class MirrorSelector {
+
+    private static final double SMOOTHING = 0.3;
+    private static final double MAX_HEALTHY_ERROR_RATE = 0.5;
+    private static final long RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @return {@code sources}, best first
+     */
+    List<URL> order(List<URL> sources) {
+        if (sources.size() < 2) {
+            return sources;
+        }
+
+        long now = System.nanoTime();
+        List<Candidate> candidates = new ArrayList<>(sources.size());
+        double bestScore = 0;
+        for (URL source : sources) {
+            HostStats stats = hosts.get(getHost(source));
+            Candidate candidate = stats != null ? stats.toCandidate(source, now) : new Candidate(source, true, Double.NaN);
+            if (candidate.healthy && candidate.score > bestScore) {
+                bestScore = candidate.score;
+            }
+
+            candidates.add(candidate);
+        }
+
+        double unknownScore = bestScore;
+        candidates.sort(Comparator.<Candidate, Boolean>comparing(candidate -> !candidate.healthy)
+                .thenComparing(Comparator.<Candidate>comparingDouble(candidate -> Double.isNaN(candidate.score) ? unknownScore : candidate.score).reversed()));
+
+        List<URL> ordered = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ordered.add(candidate.source);
+        }
+
+        return ordered;
+    }
+
+    void recordTransfer(URL source, long bytes, long nanos) {
+        if (bytes > 0 && nanos > 0) {
+            getStats(source).recordThroughput(bytes * 1e9 / nanos);
+        }
+    }
+
+    void recordSuccess(URL source) {
+        getStats(source).recordResult(false);
+    }
+
+    void recordFailure(URL source) {
+        getStats(source).recordResult(true);
+    }
+
+    private HostStats getStats(URL source) {
+        return hosts.computeIfAbsent(getHost(source), host -> new HostStats());
+    }
+
+    private static String getHost(URL url) {
+        return url.getHost() == null ? "" : url.getHost();
+    }
+
+    /**
+     * @author xtrm
+     */
+    private static final class HostStats {
+
+        private double throughput = Double.NaN;
+        private double errorRate;
+        private long lastFailureAt;
+
+        synchronized void recordThroughput(double bytesPerSecond) {
+            throughput = Double.isNaN(throughput)
+                    ? bytesPerSecond
+                    : throughput + SMOOTHING * (bytesPerSecond - throughput);
+        }
+
+        synchronized void recordResult(boolean failed) {
+            errorRate += SMOOTHING * ((failed ? 1 : 0) - errorRate);
+            if (failed) {
+                lastFailureAt = System.nanoTime();
+            }
+        }
+
+        synchronized Candidate toCandidate(URL source, long now) {
+            boolean healthy = errorRate < MAX_HEALTHY_ERROR_RATE || now - lastFailureAt > RECOVERY_NANOS;
+            return new Candidate(source, healthy, throughput * (1 - errorRate));
+        }
+
+    }
+
+    /**
+     * @author xtrm
+     */
+    private static final class Candidate {
+
+        private final URL source;
+        private final boolean healthy;
+        /**
+         * Throughput discounted by the error rate, {@link Double#NaN} if
+         * unknown.
+         */
+        private final double score;
+
+        private Candidate(URL source, boolean healthy, double score) {
+            this.source = source;
+            this.healthy = healthy;
+            this.score = score;
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.HttpStatusException;
+import dev.deftu.filestream.api.RetryPolicy;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Applies a {@link RetryPolicy}: tells which failures are worth retrying
+ * and after how long, and keeps a circuit breaker per host.
+ *
+ * @author xtrm
+ */
+class Retries {
+
+    private final RetryPolicy policy;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    Retries(RetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return whether a request may be sent to the host of {@code source},
+     * {@code false} while its circuit is open
+     */
+    boolean tryEnter(URL source) {
+        if (policy.getCircuitBreakerThreshold() == 0) {
+            return true;
+        }
+
+        Circuit circuit = circuits.get(getHost(source));
+        return circuit == null || circuit.tryEnter(System.nanoTime(), policy.getCircuitBreakerDuration().toNanos());
+    }
+
+    void recordSuccess(URL source) {
+        if (policy.getCircuitBreakerThreshold() == 0) {
+            return;
+        }
+
+        Circuit circuit = circuits.get(getHost(source));
+        if (circuit != null) {
+            circuit.recordSuccess();
+        }
+    }
+
+    /**
+     * Counts {@code failure} against the host of {@code source} if it says
+     * something about the host's health, e.g. not for a missing file.
+     */
+    void recordFailure(URL source, Throwable failure) {
+        if (policy.getCircuitBreakerThreshold() == 0 || !isRetryable(failure)) {
+            return;
+        }
+
+        circuits.computeIfAbsent(getHost(source), host -> new Circuit())
+                .recordFailure(System.nanoTime(), policy.getCircuitBreakerThreshold(), policy.getCircuitBreakerDuration().toNanos());
+    }
+
+    /**
+     * @param attempt the attempt which just failed, starting at {@code 1}
+     * @return how long to wait before the next attempt in nanoseconds, or
+     * {@code -1} if there shouldn't be one
+     */
+    long getRetryDelay(Throwable failure, int attempt) {
+        if (attempt >= policy.getMaxAttempts() || !isRetryable(failure)) {
+            return -1;
+        }
+
+        long maxDelay = policy.getMaxDelay().toNanos();
+        double backoff = Math.min(maxDelay, policy.getInitialDelay().toNanos() * Math.pow(policy.getMultiplier(), attempt - 1));
+        long delay = (long) (backoff * (1 - policy.getJitter() * ThreadLocalRandom.current().nextDouble()));
+
+        HttpStatusException statusException = findCause(failure, HttpStatusException.class);
+        long retryAfter = statusException != null ? parseRetryAfter(statusException.getRetryAfter()) : -1;
+        if (retryAfter > maxDelay) {
+            return -1;
+        }
+
+        return Math.max(delay, retryAfter);
+    }
+
+    private boolean isRetryable(Throwable failure) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                return policy.getRetryableStatusCodes().contains(((HttpStatusException) cause).getStatusCode());
+            }
+
+            if ((cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException))
+                    || cause instanceof ClosedByInterruptException) {
+                return false;
+            }
+
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the delay a {@code Retry-After} header asks for in nanoseconds,
+     * or {@code -1} if there is none or it can't be parsed
+     */
+    static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+
+        String value = retryAfter.trim();
+        try {
+            // Either delay-seconds or an HTTP-date
+            if (Character.isDigit(value.charAt(0))) {
+                return Duration.ofSeconds(Long.parseLong(value)).toNanos();
+            }
+
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toNanos());
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private static <T extends Throwable> @Nullable T findCause(Throwable failure, Class<T> type) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return type.cast(cause);
+            }
+        }
+
+        return null;
+    }
+
+    private static String getHost(URL url) {
+        return url.getHost() == null ? "" : url.getHost();
+    }
+
+    /**
+     * The circuit breaker of a host. Once open, it lets a single trial
+     * request through every {@link RetryPolicy#getCircuitBreakerDuration()},
+     * and closes again when one succeeds.
+     *
+     * @author xtrm
+     */
+    private static final class Circuit {
+
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean open;
+
+        synchronized boolean tryEnter(long now, long duration) {
+            if (!open) {
+                return true;
+            }
+
+            if (now - openUntil < 0) {
+                return false;
+            }
+
+            // Let this request through as the trial, and no other until it
+            // failed or the duration passed again
+            openUntil = now + duration;
+            return true;
+        }
+
+        synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            open = false;
+        }
+
+        synchronized void recordFailure(long now, int threshold, long duration) {
+            consecutiveFailures++;
+            if (consecutiveFailures >= threshold) {
+                open = true;
+                openUntil = now + duration;
+            }
+        }
+
+    }
+
+}
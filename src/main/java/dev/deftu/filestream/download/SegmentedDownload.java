@@ -0,0 +1,220 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.api.Transport;
+import dev.deftu.filestream.store.ObjectMetadata;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file as several byte ranges fetched in parallel, each written
+ * at its own position of a preallocated file.
+ *
+ * @author xtrm
+ */
+class SegmentedDownload {
+
+    private static final Logger logger = LogManager.getLogger();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Transport transport;
+    private final URL url;
+    private final Path tempObject;
+    private final ObjectMetadata metadata;
+    private final int segments;
+    private final Executor executor;
+    private final Downloader.DownloadCallback callback;
+
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    SegmentedDownload(Transport transport, URL url, Path tempObject, ObjectMetadata metadata, int segments, Executor executor, Downloader.DownloadCallback callback) {
+        this.transport = transport;
+        this.url = url;
+        this.tempObject = tempObject;
+        this.metadata = metadata;
+        this.segments = segments;
+        this.executor = executor;
+        this.callback = callback;
+    }
+
+    /**
+     * Downloads every segment into the temporary object, the first one on
+     * the calling thread and the others on the executor.
+     */
+    void run() throws IOException {
+        long size = metadata.getSize();
+        try (RandomAccessFile file = new RandomAccessFile(tempObject.toFile(), "rw")) {
+            file.setLength(size);
+
+            FileChannel channel = file.getChannel();
+            long segmentSize = (size + segments - 1) / segments;
+            List<CompletableFuture<Void>> futures = new ArrayList<>(segments - 1);
+            for (int i = 1; i < segments; i++) {
+                long start = i * segmentSize;
+                long end = Math.min(size, start + segmentSize) - 1;
+                if (start > end) {
+                    break;
+                }
+
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        downloadSegment(channel, start, end);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            IOException failure = null;
+            try {
+                downloadSegment(channel, 0, Math.min(size, segmentSize) - 1);
+            } catch (IOException e) {
+                failed.set(true);
+                failure = e;
+            }
+
+            // Never leave segments writing into a closed file
+            for (CompletableFuture<Void> future : futures) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    failed.set(true);
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException
+                                ? (IOException) cause
+                                : new IOException("Error while downloading segment of " + url, cause);
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            channel.force(true);
+        }
+    }
+
+    private void downloadSegment(FileChannel channel, long start, long end) throws IOException {
+        logger.trace("Downloading bytes {}-{} of {}", start, end, url);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Range", "bytes=" + start + "-" + end);
+        headers.put("Accept-Encoding", "identity");
+        String validator = metadata.getValidator();
+        if (validator != null) {
+            headers.put("If-Range", validator);
+        }
+
+        try (Transport.Response response = transport.send(url, "GET", headers)) {
+            int responseCode = response.getStatusCode();
+            String contentRange = response.getHeader("Content-Range");
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                    || !contentRange.trim().startsWith("bytes " + start + "-" + end + "/")) {
+                throw new RangeNotHonoredException("Server didn't honor range " + start + "-" + end + " of " + url
+                        + " (HTTP " + responseCode + ", " + contentRange + ")");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = start;
+            try (InputStream inputStream = response.getBody()) {
+                int read;
+                while (!failed.get() && (read = inputStream.read(buffer.array(), 0, BUFFER_SIZE)) != -1) {
+                    buffer.clear();
+                    buffer.limit(read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+
+                    reportProgress(read);
+                }
+            }
+
+            if (failed.get()) {
+                throw new IOException("Another segment of " + url + " failed");
+            }
+
+            if (position != end + 1) {
+                throw new IOException("Connection closed after " + (position - start) + " of " + (end + 1 - start) + " bytes");
+            }
+        }
+    }
+
+    private void reportProgress(int read) {
+        // Segments report from several threads, keep callbacks ordered
+        synchronized (this) {
+            callback.updateProgress(downloaded.addAndGet(read), metadata.getSize());
+        }
+    }
+
+    /**
+     * Thrown when the server answers a segment with anything but that exact
+     * range, e.g. with the whole file.
+     *
+     * @author xtrm
+     */
+    static final class RangeNotHonoredException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RangeNotHonoredException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Asks the server whether {@code url} can be downloaded in segments.
+     *
+     * @return the {@link ObjectMetadata} of the file if it supports range
+     * requests and is at least {@code threshold} bytes large, {@code null}
+     * otherwise
+     */
+    static @Nullable ObjectMetadata probe(Transport transport, URL url, long threshold) {
+        try (Transport.Response response = transport.send(url, "HEAD", Collections.singletonMap("Accept-Encoding", "identity"))) {
+            if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            long size = response.getContentLength();
+            String acceptRanges = response.getHeader("Accept-Ranges");
+            if (size < threshold || size <= 0 || acceptRanges == null || !acceptRanges.trim().equalsIgnoreCase("bytes")) {
+                logger.trace("Not segmenting {} (size {}, Accept-Ranges {})", url, size, acceptRanges);
+                return null;
+            }
+
+            return new ObjectMetadata(
+                    url.toString(),
+                    response.getHeader("ETag"),
+                    response.getHeader("Last-Modified"),
+                    size,
+                    System.currentTimeMillis()
+            );
+        } catch (IOException e) {
+            logger.trace("Couldn't probe {} for range support", url, e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.api.DownloaderConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Forwards progress to a {@link Downloader.DownloadCallback} at most every
+ * {@link DownloaderConfig#getProgressInterval()} and
+ * {@link DownloaderConfig#getProgressBytes()}, dropping what's in between.
+ * </p>
+ * <p>
+ * Progress is forwarded by one thread at a time and never goes backwards:
+ * values below the last forwarded one, e.g. from a segment which lost the
+ * race to report or a download restarting after a failure, are dropped.
+ * Only {@link #flush()} bypasses the throttling, forwarding the latest
+ * progress if it was dropped, so the last callback always carries the
+ * final values.
+ * </p>
+ *
+ * @author xtrm
+ */
+class ThrottledCallback implements Downloader.DownloadCallback {
+
+    private final Downloader.DownloadCallback delegate;
+    private final long minIntervalNanos;
+    private final long minBytes;
+    private final AtomicLong lastReportedAt;
+    private final ReentrantLock reportLock = new ReentrantLock();
+
+    // The latest progress, guarded by this
+    private long downloaded = -1;
+    private long total = -1;
+    private volatile long reportedDownloaded = -1;
+    private volatile long reportedTotal = -1;
+
+    ThrottledCallback(Downloader.DownloadCallback delegate, DownloaderConfig config) {
+        this.delegate = delegate;
+        this.minIntervalNanos = config.getProgressInterval().toNanos();
+        this.minBytes = config.getProgressBytes();
+        this.lastReportedAt = new AtomicLong(System.nanoTime() - minIntervalNanos);
+    }
+
+    @Override
+    public void updateProgress(long downloaded, long total) {
+        synchronized (this) {
+            if (downloaded >= this.downloaded) {
+                this.downloaded = downloaded;
+                this.total = total;
+            }
+        }
+
+        if (downloaded - reportedDownloaded < minBytes) {
+            return;
+        }
+
+        if (minIntervalNanos > 0) {
+            // Only one of concurrent segments gets to report
+            long now = System.nanoTime();
+            long last = lastReportedAt.get();
+            if (now - last < minIntervalNanos || !lastReportedAt.compareAndSet(last, now)) {
+                return;
+            }
+        }
+
+        // Progress is still coming, no need to wait for another report
+        if (reportLock.tryLock()) {
+            try {
+                report(downloaded, total);
+            } finally {
+                reportLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forwards the latest progress, unless it already was.
+     */
+    void flush() {
+        reportLock.lock();
+        try {
+            long downloaded;
+            long total;
+            synchronized (this) {
+                downloaded = this.downloaded;
+                total = this.total;
+            }
+
+            report(downloaded, total);
+        } finally {
+            reportLock.unlock();
+        }
+    }
+
+    /**
+     * Forwards the latest progress, or {@code size} out of {@code size} if
+     * there never was any, e.g. because the object was already stored.
+     */
+    void complete(long size) {
+        synchronized (this) {
+            if (downloaded < 0 && size >= 0) {
+                this.downloaded = size;
+                this.total = size;
+            }
+        }
+
+        flush();
+    }
+
+    private void report(long downloaded, long total) {
+        if (downloaded < 0 || downloaded < reportedDownloaded
+                || (downloaded == reportedDownloaded && total == reportedTotal)) {
+            return;
+        }
+
+        reportedDownloaded = downloaded;
+        reportedTotal = total;
+        delegate.updateProgress(downloaded, total);
+    }
+
+}
@@ -0,0 +1,241 @@
+package dev.deftu.filestream.download;
+
+import dev.deftu.filestream.api.Transport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * <p>
+ * A {@link Transport} over {@link URLConnection}.
+ * </p>
+ * <p>
+ * HTTP connections are pooled by the JDK as long as every body is read to
+ * its end and closed, and {@link HttpURLConnection#disconnect()} isn't
+ * called. Closing a response skips what's left of a small body to keep
+ * its connection, and only drops connections with a lot left to read.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class UrlConnectionTransport implements Transport {
+
+    public static final UrlConnectionTransport INSTANCE = new UrlConnectionTransport();
+
+    private static final Logger logger = LogManager.getLogger();
+    private static final int MAX_DRAINED_BYTES = 64 * 1024;
+
+    @Override
+    public @NotNull Response send(@NotNull URL url, @NotNull String method, @NotNull Map<String, String> headers) throws IOException {
+        URLConnection urlConnection = Networking.createConnection(url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (urlConnection instanceof HttpURLConnection) {
+            HttpURLConnection httpURLConnection = (HttpURLConnection) urlConnection;
+            try {
+                httpURLConnection.setRequestMethod(method);
+                return new UrlConnectionResponse(httpURLConnection, httpURLConnection.getResponseCode());
+            } catch (IOException e) {
+                httpURLConnection.disconnect();
+                throw e;
+            }
+        }
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            throw new IOException("Unsupported method " + method + " for " + url);
+        }
+
+        urlConnection.connect();
+        return new UrlConnectionResponse(urlConnection, HttpURLConnection.HTTP_OK);
+    }
+
+    /**
+     * @author xtrm
+     */
+    private static final class UrlConnectionResponse implements Response {
+
+        private final URLConnection urlConnection;
+        private final int statusCode;
+        private @Nullable Body body;
+        private boolean closed;
+
+        private UrlConnectionResponse(URLConnection urlConnection, int statusCode) {
+            this.urlConnection = urlConnection;
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public @Nullable String getHeader(@NotNull String name) {
+            return urlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return urlConnection.getContentLengthLong();
+        }
+
+        @Override
+        public synchronized @NotNull InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new Body(urlConnection.getInputStream());
+            }
+
+            return body;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                // Closing a body lets the JDK pool its connection or drop it,
+                // disconnecting after that would close a pooled connection
+                if (body != null && (body.ended || body.closed)) {
+                    body.close();
+                    return;
+                }
+
+                InputStream inputStream = body != null ? body : findUnreadBody();
+                if (inputStream == null) {
+                    return;
+                }
+
+                try (InputStream unread = inputStream) {
+                    if (!drain(unread)) {
+                        logger.trace("Dropping connection to {}, too much of the body is left", urlConnection.getURL());
+                        disconnect();
+                    }
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        @Override
+        public void abort() {
+            Body inputStream;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                inputStream = body;
+            }
+
+            if (inputStream != null && inputStream.ended) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+
+                return;
+            }
+
+            // Disconnecting first makes a blocked read fail right away
+            disconnect();
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private @Nullable InputStream findUnreadBody() throws IOException {
+            if (urlConnection instanceof HttpURLConnection && statusCode >= 400) {
+                return ((HttpURLConnection) urlConnection).getErrorStream();
+            }
+
+            return urlConnection.getInputStream();
+        }
+
+        private void disconnect() {
+            if (urlConnection instanceof HttpURLConnection) {
+                ((HttpURLConnection) urlConnection).disconnect();
+            }
+        }
+
+        /**
+         * @return whether the body ended within {@link #MAX_DRAINED_BYTES}
+         */
+        private static boolean drain(InputStream inputStream) throws IOException {
+            byte[] buffer = new byte[8192];
+            long drained = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAINED_BYTES) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+    }
+
+    /**
+     * Remembers whether the body was read to its end.
+     *
+     * @author xtrm
+     */
+    private static final class Body extends FilterInputStream {
+
+        private volatile boolean ended;
+        private volatile boolean closed;
+
+        private Body(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read == -1) {
+                ended = true;
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                ended = true;
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package dev.deftu.filestream.store;
+
+import dev.deftu.filestream.api.Store;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A {@link Store.ObjectSchema} remembering the paths another schema
+ * resolved, so looking up the same name again costs a map lookup instead
+ * of rerunning the schema.
+ * </p>
+ * <p>
+ * Each store root gets its own cache of two generations: lookups go to the
+ * young generation, and once it is full it becomes the old one, dropping
+ * the previous old generation. Names still in use are promoted back on
+ * their next lookup, so the cache holds at most {@code maxSize} paths
+ * without any per-entry bookkeeping.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class CachingObjectSchema implements Store.ObjectSchema {
+
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+
+    private final Store.ObjectSchema delegate;
+    private final int generationSize;
+    private final Map<Path, Generations> caches = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingObjectSchema(@NotNull Store.ObjectSchema delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingObjectSchema(@NotNull Store.ObjectSchema delegate, int maxSize) {
+        if (maxSize < 2) {
+            throw new IllegalArgumentException("maxSize must be at least 2");
+        }
+
+        this.delegate = delegate;
+        this.generationSize = maxSize / 2;
+    }
+
+    @Override
+    public Path getObjectPath(Path storeRoot, String name) throws IOException {
+        Generations generations = caches.computeIfAbsent(storeRoot, key -> new Generations());
+        Path path = generations.young.get(name);
+        if (path != null) {
+            hits.increment();
+            return path;
+        }
+
+        path = generations.old.get(name);
+        if (path != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            path = delegate.getObjectPath(storeRoot, name);
+        }
+
+        generations.put(name, path, generationSize);
+        return path;
+    }
+
+    public @NotNull Store.ObjectSchema getDelegate() {
+        return delegate;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the amount of cached paths, across all store roots
+     */
+    public int size() {
+        int size = 0;
+        for (Generations generations : caches.values()) {
+            size += generations.young.size() + generations.old.size();
+        }
+
+        return size;
+    }
+
+    public void clear() {
+        caches.clear();
+    }
+
+    private static final class Generations {
+
+        private volatile Map<String, Path> young = new ConcurrentHashMap<>();
+        private volatile Map<String, Path> old = new ConcurrentHashMap<>();
+
+        private void put(String name, Path path, int generationSize) {
+            Map<String, Path> young = this.young;
+            young.put(name, path);
+            if (young.size() >= generationSize) {
+                synchronized (this) {
+                    // Another thread may have rotated in the meantime
+                    if (this.young == young) {
+                        this.old = young;
+                        this.young = new ConcurrentHashMap<>();
+                    }
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,241 @@
+package dev.deftu.filestream.store;
+
+import dev.deftu.filestream.api.Rewriter;
+import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.util.HashingHelper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A {@link FileStore} keeping every distinct content only once, no matter
+ * how many names it is stored under.
+ * </p>
+ * <p>
+ * Content lives in {@code content/}, laid out by its digest. Objects live
+ * in {@code names/}, laid out by the name schema, and are {@link Rewriter}
+ * links to their content. The {@link HashIndex} remembers the digest each
+ * name was linked to, so the same file served from two mirrors is
+ * downloaded and stored once.
+ * </p>
+ * <p>
+ * Eviction only ever takes content: names are neither counted nor evicted,
+ * and pinning a name holds on to the content it gets linked to. Names that
+ * fell back to hard links or copies keep their bytes until they are
+ * deleted themselves.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class ContentAddressedStore extends FileStore {
+
+    public static final String CONTENT_DIR = "content";
+    public static final String NAMES_DIR = "names";
+
+    private static final Logger logger = LogManager.getLogger();
+    private static final String LINK_SUFFIX = ".link";
+
+    private final Store.ObjectSchema nameSchema;
+    private final String algorithm;
+    // The content each pinned name was linked to, pinned on its behalf
+    private final Map<Path, Path> pinnedContent = new ConcurrentHashMap<>();
+
+    public ContentAddressedStore(@NotNull Path parent, @NotNull String storeDirName) {
+        this(parent, storeDirName, FastHashSchema.INSTANCE, "SHA-256");
+    }
+
+    public ContentAddressedStore(@NotNull Path parent, @NotNull String storeDirName, @NotNull Store.ObjectSchema nameSchema, @NotNull String algorithm) {
+        super(parent, storeDirName, (storeRoot, name) -> nameSchema.getObjectPath(storeRoot.resolve(NAMES_DIR), name));
+        this.nameSchema = nameSchema;
+        this.algorithm = algorithm;
+        excludeFromEviction(getStoreRoot().resolve(NAMES_DIR));
+    }
+
+    /**
+     * Creates a sub-store of {@code parent}.
+     */
+    protected ContentAddressedStore(@NotNull FileStore parent, @NotNull String storeDirName, @NotNull Store.ObjectSchema nameSchema, @NotNull String algorithm) {
+        super(parent, storeDirName, (storeRoot, name) -> nameSchema.getObjectPath(storeRoot.resolve(NAMES_DIR), name));
+        this.nameSchema = nameSchema;
+        this.algorithm = algorithm;
+        excludeFromEviction(getStoreRoot().resolve(NAMES_DIR));
+    }
+
+    @Override
+    public @NotNull String getContentAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return where the content with the given digest is, or would be, stored
+     */
+    public @NotNull Path getContent(@NotNull String hash) {
+        String contentHash = hash.toLowerCase(Locale.ROOT);
+        return getStoreRoot().resolve(CONTENT_DIR)
+                .resolve(contentHash.substring(0, 2))
+                .resolve(contentHash.substring(0, 4))
+                .resolve(contentHash);
+    }
+
+    @Override
+    public void commit(@NotNull Path tempObject, @NotNull Path object, @Nullable String contentHash) throws IOException {
+        String hash = contentHash != null ? contentHash.toLowerCase(Locale.ROOT) : HashingHelper.hash(tempObject, algorithm);
+        Path content = getContent(hash);
+        pinContent(object, content);
+        if (Files.exists(content) && Files.size(content) == Files.size(tempObject) && isIntact(content, hash)) {
+            logger.trace("Content {} is already stored, dropping {}", hash, tempObject);
+            Files.delete(tempObject);
+        } else {
+            // Replaces content which got corrupted since it was stored
+            logger.trace("Storing {} as content {}", tempObject, hash);
+            Files.createDirectories(content.getParent());
+            moveAtomically(tempObject, content);
+            getHashIndex().record(content, algorithm, hash);
+            recordWrite(content);
+        }
+
+        link(content, object, hash);
+    }
+
+    @Override
+    public boolean linkContent(@NotNull Path object, @NotNull String algorithm, @NotNull String hash) throws IOException {
+        if (!this.algorithm.equalsIgnoreCase(algorithm)) {
+            return false;
+        }
+
+        Path content = getContent(hash);
+        if (!Files.exists(content)) {
+            return false;
+        }
+
+        if (!isIntact(content, hash)) {
+            logger.warn("Content {} is corrupted, removing it", content);
+            evictObject(content);
+            return false;
+        }
+
+        // Eviction may have taken the content before it got pinned
+        pinContent(object, content);
+        if (!Files.exists(content)) {
+            return false;
+        }
+
+        recordAccess(content);
+        logger.trace("Linking {} to already stored content {}", object, hash);
+        Files.createDirectories(object.getParent());
+        link(content, object, hash.toLowerCase(Locale.ROOT));
+        return true;
+    }
+
+    /**
+     * @return whether {@code content} still has the digest it is stored
+     * under, rehashing it unless the {@link HashIndex} knows it is unchanged
+     */
+    private boolean isIntact(Path content, String hash) throws IOException {
+        HashIndex hashIndex = getHashIndex();
+        if (hashIndex.isVerified(content, algorithm, hash)) {
+            return true;
+        }
+
+        String computedHash = HashingHelper.hash(content, algorithm);
+        if (!computedHash.equalsIgnoreCase(hash)) {
+            return false;
+        }
+
+        hashIndex.record(content, algorithm, computedHash);
+        return true;
+    }
+
+    private void link(Path content, Path object, String hash) throws IOException {
+        // Build the link next to the object and move it over, so the object
+        // never disappears while it is being relinked
+        Path tempLink = object.resolveSibling(object.getFileName() + LINK_SUFFIX);
+        Files.deleteIfExists(tempLink);
+        Rewriter.DEFAULT.rewrite(content.toAbsolutePath(), tempLink);
+        moveAtomically(tempLink, object);
+        getHashIndex().record(object, algorithm, hash);
+    }
+
+    /**
+     * Pins {@code content} for as long as {@code object} is pinned, if it
+     * is.
+     */
+    private void pinContent(Path object, Path content) {
+        synchronized (pinnedContent) {
+            if (!isPinned(object)) {
+                return;
+            }
+
+            Path absoluteContent = content.toAbsolutePath();
+            Path previous = pinnedContent.put(object.toAbsolutePath(), absoluteContent);
+            if (!absoluteContent.equals(previous)) {
+                super.pin(absoluteContent);
+                if (previous != null) {
+                    super.unpin(previous);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void unpin(@NotNull Path object) {
+        synchronized (pinnedContent) {
+            super.unpin(object);
+            if (!isPinned(object)) {
+                Path content = pinnedContent.remove(object.toAbsolutePath());
+                if (content != null) {
+                    super.unpin(content);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void recordAccess(@NotNull Path object) {
+        // Names are links, it's their content which is tracked
+        Path content = isEvicting() ? getLinkedContent(object) : null;
+        super.recordAccess(content != null ? content : object);
+    }
+
+    /**
+     * @return the content {@code object} is linked to, if it is a name
+     */
+    private @Nullable Path getLinkedContent(Path object) {
+        if (!object.toAbsolutePath().normalize().startsWith(getStoreRoot().resolve(NAMES_DIR).toAbsolutePath().normalize())) {
+            return null;
+        }
+
+        if (Files.isSymbolicLink(object)) {
+            try {
+                return Files.readSymbolicLink(object);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // Hard links and copies are only known by the digest they were
+        // linked with
+        String hash = getHashIndex().getVerifiedHash(object, algorithm);
+        return hash != null ? getContent(hash) : null;
+    }
+
+    @Override
+    public @NotNull Store getSubStore(String name) {
+        return getSubStore(name, nameSchema);
+    }
+
+    @Override
+    public @NotNull Store getSubStore(String name, ObjectSchema objectSchema) {
+        return new ContentAddressedStore(this, name, objectSchema, algorithm);
+    }
+
+}
@@ -0,0 +1,150 @@
+package dev.deftu.filestream.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Limits on how much a {@link FileStore} may hold, see {@link #builder()}
+ * and {@link FileStore#enableEviction(EvictionPolicy)}.
+ *
+ * @author xtrm
+ */
+public final class EvictionPolicy {
+
+    private final long maxBytes;
+    private final Duration maxAge;
+    private final Order order;
+    private final Duration sweepInterval;
+    private final int sweepBatchSize;
+
+    private EvictionPolicy(Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.maxAge = builder.maxAge;
+        this.order = builder.order;
+        this.sweepInterval = builder.sweepInterval;
+        this.sweepBatchSize = builder.sweepBatchSize;
+    }
+
+    /**
+     * @return the total size the store's objects may take up, or {@code -1}
+     * if unlimited
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return how long an object may go unused before it is evicted, or
+     * {@link Duration#ZERO} if forever
+     */
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public Duration getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public int getSweepBatchSize() {
+        return sweepBatchSize;
+    }
+
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Which objects go first when the store is over its size limit.
+     *
+     * @author xtrm
+     */
+    public enum Order {
+        /**
+         * Least recently used first.
+         */
+        LRU,
+        /**
+         * Least frequently used first, least recently used among equals.
+         */
+        LFU
+    }
+
+    public static final class Builder {
+
+        private long maxBytes = -1;
+        private Duration maxAge = Duration.ZERO;
+        private Order order = Order.LRU;
+        private Duration sweepInterval = Duration.ofMinutes(1);
+        private int sweepBatchSize = 256;
+
+        private Builder() {
+        }
+
+        /**
+         * The total size the store's objects may take up, {@code -1} for
+         * no limit.
+         */
+        public Builder maxBytes(long maxBytes) {
+            if (maxBytes < -1) {
+                throw new IllegalArgumentException("maxBytes must be -1 or positive");
+            }
+
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * How long an object may go unused before it is evicted,
+         * {@link Duration#ZERO} to keep objects regardless of age.
+         */
+        public Builder maxAge(@NotNull Duration maxAge) {
+            if (maxAge.isNegative()) {
+                throw new IllegalArgumentException("maxAge must not be negative");
+            }
+
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        public Builder order(@NotNull Order order) {
+            this.order = order;
+            return this;
+        }
+
+        /**
+         * The delay between two background sweeps.
+         */
+        public Builder sweepInterval(@NotNull Duration sweepInterval) {
+            if (sweepInterval.isNegative() || sweepInterval.isZero()) {
+                throw new IllegalArgumentException("sweepInterval must be positive");
+            }
+
+            this.sweepInterval = sweepInterval;
+            return this;
+        }
+
+        /**
+         * The most objects a single sweep may evict, so a sweep never holds
+         * on to the disk for long.
+         */
+        public Builder sweepBatchSize(int sweepBatchSize) {
+            if (sweepBatchSize < 1) {
+                throw new IllegalArgumentException("sweepBatchSize must be at least 1");
+            }
+
+            this.sweepBatchSize = sweepBatchSize;
+            return this;
+        }
+
+        public EvictionPolicy build() {
+            return new EvictionPolicy(this);
+        }
+
+    }
+
+}
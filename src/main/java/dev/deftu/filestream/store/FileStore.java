@@ -2,13 +2,31 @@ package dev.deftu.filestream.store;
 
 import dev.deftu.filestream.FileStream;
 import dev.deftu.filestream.api.Store;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * <p>
+ * A {@link Store} keeping its objects in a directory.
+ * </p>
+ * <p>
+ * Sub-stores live in directories of their parent store and share its pins
+ * and hash indexes, and the objects they use and write count as used and written in every
+ * store above them, so that eviction enabled on a parent never takes an
+ * object a sub-store is holding on to.
+ * </p>
+ *
  * @author xtrm
  */
 public class FileStore implements Store {
@@ -19,16 +37,40 @@ public class FileStore implements Store {
             Store.ObjectSchema.DIRECT
     );
 
+    private static final Logger logger = LogManager.getLogger();
+
+    private final @Nullable FileStore parent;
     private final Path storeRoot;
     private final Store.ObjectSchema objectSchema;
+    private final Map<Path, Integer> pins;
+    // Keyed by store root, so every instance of a store uses the same index
+    private final Map<Path, HashIndex> hashIndexes;
+    private final Set<Path> unevictableDirectories;
+    private volatile HashIndex hashIndex;
+    private volatile StoreEviction eviction;
 
     public FileStore(@NotNull Path parent, @NotNull String storeDirName) {
         this(parent, storeDirName, Store.ObjectSchema.DIRECT);
     }
 
     public FileStore(@NotNull Path parent, @NotNull String storeDirName, @NotNull Store.ObjectSchema schema) {
-        this.storeRoot = parent.resolve(storeDirName);
+        this(null, parent, storeDirName, schema);
+    }
+
+    /**
+     * Creates a sub-store of {@code parent}.
+     */
+    protected FileStore(@NotNull FileStore parent, @NotNull String storeDirName, @NotNull Store.ObjectSchema schema) {
+        this(parent, parent.getStoreRoot(), storeDirName, schema);
+    }
+
+    private FileStore(@Nullable FileStore parent, @NotNull Path parentDir, @NotNull String storeDirName, @NotNull Store.ObjectSchema schema) {
+        this.parent = parent;
+        this.storeRoot = parentDir.resolve(storeDirName);
         this.objectSchema = schema;
+        this.pins = parent != null ? parent.pins : new ConcurrentHashMap<>();
+        this.hashIndexes = parent != null ? parent.hashIndexes : new ConcurrentHashMap<>();
+        this.unevictableDirectories = parent != null ? parent.unevictableDirectories : ConcurrentHashMap.newKeySet();
 
         try {
             Files.createDirectories(this.storeRoot);
@@ -50,11 +92,174 @@ public class FileStore implements Store {
 
     @Override
     public @NotNull Path getObject(String name) {
+        Path object;
         try {
-            return this.objectSchema.getObjectPath(this.storeRoot, name);
+            object = this.objectSchema.getObjectPath(this.storeRoot, name);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        if (isEvicting()) {
+            recordAccess(object);
+        }
+
+        return object;
+    }
+
+    @Override
+    public void commit(@NotNull Path tempObject, @NotNull Path object, @Nullable String contentHash) throws IOException {
+        moveAtomically(tempObject, object);
+        recordWrite(object);
+    }
+
+    @Override
+    public void pin(@NotNull Path object) {
+        pins.merge(object.toAbsolutePath(), 1, Integer::sum);
+    }
+
+    @Override
+    public void unpin(@NotNull Path object) {
+        pins.computeIfPresent(object.toAbsolutePath(), (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    protected boolean isPinned(@NotNull Path object) {
+        return pins.containsKey(object.toAbsolutePath());
+    }
+
+    /**
+     * Keeps eviction, on this store and every store above it, away from the
+     * files in {@code directory}.
+     */
+    protected final void excludeFromEviction(@NotNull Path directory) {
+        unevictableDirectories.add(directory.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return whether eviction may count and delete {@code file}
+     */
+    boolean isEvictable(@NotNull Path file) {
+        Path absoluteFile = file.toAbsolutePath().normalize();
+        for (Path directory : unevictableDirectories) {
+            if (absoluteFile.startsWith(directory)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts evicting objects from this store in the background, whenever
+     * it goes over the limits of the given {@link EvictionPolicy}.
+     * Replaces any previously enabled policy.
+     */
+    public synchronized @NotNull StoreEviction enableEviction(@NotNull EvictionPolicy policy) {
+        disableEviction();
+
+        StoreEviction eviction = new StoreEviction(this, policy);
+        this.eviction = eviction;
+        eviction.start();
+        return eviction;
+    }
+
+    public synchronized void disableEviction() {
+        if (eviction != null) {
+            eviction.stop();
+            eviction = null;
+        }
+    }
+
+    /**
+     * @return the {@link StoreEviction} keeping this store in check, or
+     * {@code null} if eviction isn't enabled
+     */
+    public @Nullable StoreEviction getEviction() {
+        return eviction;
+    }
+
+    /**
+     * @return whether eviction is enabled on this store or a store above it
+     */
+    protected boolean isEvicting() {
+        return eviction != null || (parent != null && parent.isEvicting());
+    }
+
+    protected void recordAccess(@NotNull Path object) {
+        StoreEviction eviction = this.eviction;
+        if (eviction != null) {
+            eviction.touch(object);
+        }
+
+        if (parent != null) {
+            parent.recordAccess(object);
+        }
+    }
+
+    protected void recordWrite(@NotNull Path object) {
+        StoreEviction eviction = this.eviction;
+        if (eviction != null) {
+            eviction.recordWrite(object);
+        }
+
+        if (parent != null) {
+            parent.recordWrite(object);
+        }
+    }
+
+    /**
+     * Deletes {@code object} along with its sidecar and index entry, unless
+     * it is pinned. Pinning waits for a running deletion to finish.
+     *
+     * @return whether the object was deleted
+     */
+    boolean evictObject(@NotNull Path object) {
+        boolean[] evicted = new boolean[1];
+        pins.compute(object.toAbsolutePath(), (key, count) -> {
+            if (count == null) {
+                try {
+                    Files.deleteIfExists(object);
+                    Files.deleteIfExists(ObjectMetadata.getSidecar(object));
+                    removeFromHashIndexes(object);
+                    evicted[0] = true;
+                } catch (IOException e) {
+                    logger.warn("Couldn't evict {}", object, e);
+                }
+            }
+
+            return count;
+        });
+
+        return evicted[0];
+    }
+
+    /**
+     * Removes {@code object} from the index of the store it belongs to,
+     * which may be a sub-store of this one.
+     */
+    private void removeFromHashIndexes(Path object) {
+        Path root = storeRoot.toAbsolutePath().normalize();
+        Path directory = object.toAbsolutePath().normalize().getParent();
+        for (; directory != null && directory.startsWith(root); directory = directory.getParent()) {
+            HashIndex hashIndex = hashIndexes.get(directory);
+            if (hashIndex == null && Files.exists(directory.resolve(HashIndex.FILE_NAME))) {
+                hashIndex = hashIndexes.computeIfAbsent(directory, HashIndex::new);
+            }
+
+            if (hashIndex != null) {
+                hashIndex.remove(object);
+            }
+        }
+    }
+
+    @Override
+    public @NotNull HashIndex getHashIndex() {
+        HashIndex hashIndex = this.hashIndex;
+        if (hashIndex == null) {
+            hashIndex = hashIndexes.computeIfAbsent(storeRoot.toAbsolutePath().normalize(), HashIndex::new);
+            this.hashIndex = hashIndex;
+        }
+
+        return hashIndex;
     }
 
     @Override
@@ -64,7 +269,20 @@ public class FileStore implements Store {
 
     @Override
     public @NotNull Store getSubStore(String name, ObjectSchema objectSchema) {
-        return new FileStore(storeRoot, name, objectSchema);
+        return new FileStore(this, name, objectSchema);
+    }
+
+    /**
+     * Replaces {@code target} with {@code source}, atomically if the file
+     * system supports it.
+     */
+    public static void moveAtomically(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.warn("Atomic moves are not supported for {}, falling back to a regular move.", target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
 }
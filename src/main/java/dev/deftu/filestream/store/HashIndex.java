@@ -0,0 +1,276 @@
+package dev.deftu.filestream.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Remembers which store objects were verified against which hash, so a
+ * cache hit only costs a {@code stat} instead of rehashing the whole file.
+ * </p>
+ * <p>
+ * An entry only counts as long as the object's size and modification time
+ * are the ones it was verified with. The index is kept in memory and
+ * persisted as an append-only log in the store root, compacted on load.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class HashIndex {
+
+    public static final String FILE_NAME = ".filestream-index";
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int MAGIC = 0x46534849; // FSHI
+    private static final int VERSION = 1;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    private final Path storeRoot;
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    public HashIndex(@NotNull Path storeRoot) {
+        this.storeRoot = storeRoot;
+        this.indexFile = storeRoot.resolve(FILE_NAME);
+        load();
+    }
+
+    /**
+     * @return whether {@code object} is unchanged since it was last verified
+     * to have the given hash
+     */
+    public boolean isVerified(@NotNull Path object, @NotNull String algorithm, @NotNull String hash) {
+        return hash.equalsIgnoreCase(getVerifiedHash(object, algorithm));
+    }
+
+    /**
+     * @return the hash {@code object} was last verified to have, if it is
+     * unchanged since, {@code null} otherwise
+     */
+    public @Nullable String getVerifiedHash(@NotNull Path object, @NotNull String algorithm) {
+        String key = getKey(object);
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null || !entry.algorithm.equals(algorithm)) {
+            return null;
+        }
+
+        BasicFileAttributes attributes = readAttributes(object);
+        if (attributes == null
+                || attributes.size() != entry.size
+                || attributes.lastModifiedTime().toMillis() != entry.lastModified) {
+            return null;
+        }
+
+        return entry.hash;
+    }
+
+    /**
+     * Records that {@code object}, in its current state, has the given hash.
+     */
+    public void record(@NotNull Path object, @NotNull String algorithm, @NotNull String hash) {
+        String key = getKey(object);
+        BasicFileAttributes attributes = readAttributes(object);
+        if (key == null || attributes == null) {
+            return;
+        }
+
+        Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), algorithm, hash.toLowerCase());
+        if (entry.equals(entries.put(key, entry))) {
+            return;
+        }
+
+        append(RECORD_PUT, key, entry);
+    }
+
+    public void remove(@NotNull Path object) {
+        String key = getKey(object);
+        if (key != null && entries.remove(key) != null) {
+            append(RECORD_REMOVE, key, null);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private @Nullable String getKey(Path object) {
+        Path absoluteRoot = storeRoot.toAbsolutePath().normalize();
+        Path absoluteObject = object.toAbsolutePath().normalize();
+        if (!absoluteObject.startsWith(absoluteRoot)) {
+            return null;
+        }
+
+        return absoluteRoot.relativize(absoluteObject).toString().replace('\\', '/');
+    }
+
+    private static @Nullable BasicFileAttributes readAttributes(Path object) {
+        try {
+            return Files.readAttributes(object, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+
+        int records = 0;
+        boolean damaged = false;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                logger.warn("Unknown hash index format in {}, discarding it", indexFile);
+                Files.deleteIfExists(indexFile);
+                return;
+            }
+
+            while (true) {
+                byte type;
+                try {
+                    type = inputStream.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                String key = inputStream.readUTF();
+                if (type == RECORD_PUT) {
+                    entries.put(key, new Entry(inputStream.readLong(), inputStream.readLong(), inputStream.readUTF(), inputStream.readUTF()));
+                } else if (type == RECORD_REMOVE) {
+                    entries.remove(key);
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+
+                records++;
+            }
+        } catch (EOFException e) {
+            // A write was cut short, everything before it is still fine
+            logger.debug("Hash index {} ends with a truncated record", indexFile);
+            damaged = true;
+        } catch (IOException e) {
+            logger.warn("Couldn't read hash index {} past record {}, keeping the records before it", indexFile, records, e);
+            damaged = true;
+        }
+
+        // Rewrite a damaged log right away, records appended behind its
+        // damaged tail would never be read back
+        if (damaged || records > entries.size() * 2 + 64) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        logger.trace("Compacting hash index {}", indexFile);
+        synchronized (writeLock) {
+            Path tempFile = indexFile.resolveSibling(FILE_NAME + ".tmp");
+            try {
+                try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    outputStream.writeInt(MAGIC);
+                    outputStream.writeInt(VERSION);
+                    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                        writeRecord(outputStream, RECORD_PUT, entry.getKey(), entry.getValue());
+                    }
+                }
+
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.warn("Couldn't compact hash index {}", indexFile, e);
+            }
+        }
+    }
+
+    private void append(byte type, String key, @Nullable Entry entry) {
+        synchronized (writeLock) {
+            try {
+                boolean exists = Files.exists(indexFile);
+                try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(indexFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                    if (!exists) {
+                        outputStream.writeInt(MAGIC);
+                        outputStream.writeInt(VERSION);
+                    }
+
+                    writeRecord(outputStream, type, key, entry);
+                }
+            } catch (NoSuchFileException e) {
+                // The store root is gone, nothing worth remembering then
+                logger.trace("Store root of hash index {} is gone", indexFile);
+            } catch (IOException e) {
+                logger.warn("Couldn't write to hash index {}", indexFile, e);
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, byte type, String key, @Nullable Entry entry) throws IOException {
+        outputStream.writeByte(type);
+        outputStream.writeUTF(key);
+        if (entry != null) {
+            outputStream.writeLong(entry.size);
+            outputStream.writeLong(entry.lastModified);
+            outputStream.writeUTF(entry.algorithm);
+            outputStream.writeUTF(entry.hash);
+        }
+    }
+
+    private static final class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private final String algorithm;
+        private final String hash;
+
+        private Entry(long size, long lastModified, String algorithm, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+
+            Entry entry = (Entry) o;
+            return size == entry.size && lastModified == entry.lastModified
+                    && algorithm.equals(entry.algorithm) && hash.equals(entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(size);
+            result = 31 * result + Long.hashCode(lastModified);
+            result = 31 * result + algorithm.hashCode();
+            result = 31 * result + hash.hashCode();
+            return result;
+        }
+
+    }
+
+}
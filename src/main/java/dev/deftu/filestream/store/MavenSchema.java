@@ -0,0 +1,139 @@
+package dev.deftu.filestream.store;
+
+import dev.deftu.filestream.api.Store;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Lays objects out like a Maven repository, from names of the form
+ * {@code groupId:artifactId:version[:classifier[:extension]]}.
+ * Coordinates containing {@code /} or {@code \} are rejected, as they
+ * would lay objects out in directories, possibly outside the store, that
+ * their coordinates don't name.
+ * </p>
+ * <p>
+ * Coordinates are parsed in a single pass and the relative path is built
+ * in one pre-sized buffer, then resolved at once. Group paths can be
+ * interned, as a dependency graph usually only has a few distinct groups.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class MavenSchema implements Store.ObjectSchema {
+
+    public static final MavenSchema INSTANCE = new MavenSchema(true);
+
+    private static final int MAX_INTERNED_GROUPS = 4096;
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final boolean internGroups;
+    private final Map<String, String> groupPaths = new ConcurrentHashMap<>();
+
+    public MavenSchema(boolean internGroups) {
+        this.internGroups = internGroups;
+    }
+
+    @Override
+    public Path getObjectPath(Path storeRoot, String name) {
+        // Trailing empty fields don't count, like with String#split
+        int length = name.length();
+        while (length > 0 && name.charAt(length - 1) == ':') {
+            length--;
+        }
+
+        if (name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            throw new UnsupportedOperationException("Invalid maven schema, coordinates can't contain path separators");
+        }
+
+        int groupEnd = name.indexOf(':');
+        int artifactEnd = groupEnd < 0 || groupEnd >= length ? -1 : name.indexOf(':', groupEnd + 1);
+        if (artifactEnd < 0 || artifactEnd >= length) {
+            throw new UnsupportedOperationException("Invalid maven schema");
+        }
+
+        int versionEnd = indexOfOrEnd(name, artifactEnd + 1, length);
+        int classifierEnd = versionEnd < length ? indexOfOrEnd(name, versionEnd + 1, length) : -1;
+        int extensionEnd = classifierEnd >= 0 && classifierEnd < length ? indexOfOrEnd(name, classifierEnd + 1, length) : -1;
+
+        String groupPath = getGroupPath(name.substring(0, groupEnd));
+        int artifactLength = artifactEnd - groupEnd - 1;
+        int versionLength = versionEnd - artifactEnd - 1;
+        int classifierLength = classifierEnd >= 0 ? classifierEnd - versionEnd - 1 : -1;
+        int extensionLength = extensionEnd >= 0 ? extensionEnd - classifierEnd - 1 : 3;
+
+        StringBuilder path = new StringBuilder(groupPath.length() + 2 * artifactLength + 2 * versionLength
+                + Math.max(classifierLength, 0) + extensionLength + 8);
+        appendSegment(path, groupPath, 0, groupPath.length());
+        appendSegment(path, name, groupEnd + 1, artifactEnd);
+        appendSegment(path, name, artifactEnd + 1, versionEnd);
+        if (path.length() > 0) {
+            path.append(SEPARATOR);
+        }
+
+        path.append(name, groupEnd + 1, artifactEnd).append('-')
+                .append(name, artifactEnd + 1, versionEnd);
+        if (classifierEnd >= 0) {
+            path.append('-').append(name, versionEnd + 1, classifierEnd);
+        }
+
+        path.append('.');
+        if (extensionEnd >= 0) {
+            path.append(name, classifierEnd + 1, extensionEnd);
+        } else {
+            path.append("jar");
+        }
+
+        return storeRoot.resolve(path.toString());
+    }
+
+    private String getGroupPath(String groupId) {
+        if (!internGroups) {
+            return toGroupPath(groupId);
+        }
+
+        String groupPath = groupPaths.get(groupId);
+        if (groupPath == null) {
+            groupPath = toGroupPath(groupId);
+            if (groupPaths.size() < MAX_INTERNED_GROUPS) {
+                groupPaths.putIfAbsent(groupId, groupPath);
+            }
+        }
+
+        return groupPath;
+    }
+
+    private static String toGroupPath(String groupId) {
+        int length = groupId.length();
+        while (length > 0 && groupId.charAt(length - 1) == '.') {
+            length--;
+        }
+
+        return groupId.substring(0, length).replace('.', SEPARATOR);
+    }
+
+    /**
+     * Appends a directory to {@code path}, skipping empty ones like
+     * {@link Path#resolve(String)} would.
+     */
+    private static void appendSegment(StringBuilder path, String source, int start, int end) {
+        if (start == end) {
+            return;
+        }
+
+        if (path.length() > 0) {
+            path.append(SEPARATOR);
+        }
+
+        path.append(source, start, end);
+    }
+
+    private static int indexOfOrEnd(String name, int from, int end) {
+        int index = name.indexOf(':', from);
+        return index < 0 || index > end ? end : index;
+    }
+
+}
@@ -0,0 +1,155 @@
+package dev.deftu.filestream.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * <p>
+ * A small record about where a store object came from, kept in a sidecar
+ * file next to it.
+ * </p>
+ * <p>
+ * It holds the validators the server sent along with the object, which are
+ * needed to safely resume or revalidate it later on.
+ * </p>
+ *
+ * @author xtrm
+ */
+public final class ObjectMetadata {
+
+    public static final String SIDECAR_SUFFIX = ".meta";
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final @Nullable String source;
+    private final @Nullable String etag;
+    private final @Nullable String lastModified;
+    private final long size;
+    private final long fetchedAt;
+
+    public ObjectMetadata(@Nullable String source, @Nullable String etag, @Nullable String lastModified, long size, long fetchedAt) {
+        this.source = source;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * @return the URL the object was fetched from
+     */
+    public @Nullable String getSource() {
+        return source;
+    }
+
+    public @Nullable String getEtag() {
+        return etag;
+    }
+
+    public @Nullable String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the full size of the object in bytes, or {@code -1} if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time the object was fetched, in milliseconds since the epoch
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return whether the server gave us anything to validate the object with
+     */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * @return the strongest available validator suitable for an
+     * {@code If-Range} header, a strong {@code ETag} or else the
+     * {@code Last-Modified} date, as servers ignore {@code If-Range} with a
+     * weak {@code ETag}
+     */
+    public @Nullable String getValidator() {
+        return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+    }
+
+    public @NotNull ObjectMetadata withFetchedAt(long fetchedAt) {
+        return new ObjectMetadata(source, etag, lastModified, size, fetchedAt);
+    }
+
+    public void write(@NotNull Path file) throws IOException {
+        Properties properties = new Properties();
+        if (source != null) {
+            properties.setProperty("source", source);
+        }
+
+        if (etag != null) {
+            properties.setProperty("etag", etag);
+        }
+
+        if (lastModified != null) {
+            properties.setProperty("lastModified", lastModified);
+        }
+
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("fetchedAt", Long.toString(fetchedAt));
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+            properties.store(outputStream, null);
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the {@link ObjectMetadata} stored in {@code file}, or
+     * {@code null} if it doesn't exist or can't be read
+     */
+    public static @Nullable ObjectMetadata read(@NotNull Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+            return new ObjectMetadata(
+                    properties.getProperty("source"),
+                    properties.getProperty("etag"),
+                    properties.getProperty("lastModified"),
+                    Long.parseLong(properties.getProperty("size", "-1")),
+                    Long.parseLong(properties.getProperty("fetchedAt", "0"))
+            );
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Couldn't read object metadata {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the sidecar metadata file of the given object
+     */
+    public static @NotNull Path getSidecar(@NotNull Path object) {
+        return object.resolveSibling(object.getFileName() + SIDECAR_SUFFIX);
+    }
+
+}
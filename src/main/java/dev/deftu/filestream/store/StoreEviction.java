@@ -0,0 +1,295 @@
+package dev.deftu.filestream.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Keeps a {@link FileStore} within the limits of an {@link EvictionPolicy}.
+ * </p>
+ * <p>
+ * The size and last use of every object are tracked in memory: the store
+ * is only walked once, by the first sweep, and kept up to date as objects
+ * are committed and looked up. Sweeps run in the background and evict at
+ * most {@link EvictionPolicy#getSweepBatchSize()} objects each, skipping
+ * pinned ones.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class StoreEviction {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    // Temporary and bookkeeping files, which aren't objects of their own
+    private static final String[] IGNORED_SUFFIXES = {".part", ".link", ".tmp", ObjectMetadata.SIDECAR_SUFFIX};
+
+    private final FileStore store;
+    private final EvictionPolicy policy;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private volatile boolean scanned;
+    private ScheduledFuture<?> sweepTask;
+
+    StoreEviction(@NotNull FileStore store, @NotNull EvictionPolicy policy) {
+        this.store = store;
+        this.policy = policy;
+    }
+
+    public @NotNull EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the total size of the tracked objects, in bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public int getObjectCount() {
+        return entries.size();
+    }
+
+    synchronized void start() {
+        long interval = policy.getSweepInterval().toMillis();
+        sweepTask = Sweeper.EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (Throwable t) {
+                logger.warn("Error while sweeping store {}", store.getStoreRoot(), t);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+            sweepTask = null;
+        }
+    }
+
+    /**
+     * Marks {@code object} as just used.
+     */
+    void touch(@NotNull Path object) {
+        Entry entry = entries.get(object.toAbsolutePath());
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            entry.uses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts or updates the tracking of {@code object} after it was written.
+     */
+    void recordWrite(@NotNull Path object) {
+        if (isIgnored(object) || !store.isEvictable(object)) {
+            return;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(object, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return;
+        }
+
+        if (attributes.isRegularFile()) {
+            track(object.toAbsolutePath(), attributes.size(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Runs one sweep, evicting expired objects and then, if the store is
+     * still too large, the least valuable ones.
+     *
+     * @return the amount of objects evicted
+     */
+    public synchronized int sweep() {
+        if (!scanned) {
+            scan();
+        }
+
+        long maxAge = policy.getMaxAge().toMillis();
+        long maxBytes = policy.getMaxBytes();
+        if (maxAge <= 0 && (maxBytes < 0 || totalBytes.get() <= maxBytes)) {
+            return 0;
+        }
+
+        // Entries keep changing while we sort, so work on a snapshot
+        List<Candidate> candidates = new ArrayList<>(entries.size());
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+        }
+
+        candidates.sort(policy.getOrder() == EvictionPolicy.Order.LFU ? Candidate.LFU : Candidate.LRU);
+
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Candidate candidate : candidates) {
+            if (evicted >= policy.getSweepBatchSize()) {
+                break;
+            }
+
+            boolean expired = maxAge > 0 && now - candidate.lastAccess > maxAge;
+            boolean overQuota = maxBytes >= 0 && totalBytes.get() > maxBytes;
+            // Skip objects that were used since the snapshot was taken
+            if ((!expired && !overQuota) || candidate.entry.lastAccess != candidate.lastAccess) {
+                continue;
+            }
+
+            if (evict(candidate.path, candidate.entry)) {
+                evicted++;
+            }
+        }
+
+        if (evicted > 0) {
+            logger.trace("Evicted {} objects from {}, {} bytes left", evicted, store.getStoreRoot(), totalBytes.get());
+        }
+
+        return evicted;
+    }
+
+    private boolean evict(Path object, Entry entry) {
+        if (!store.evictObject(object)) {
+            logger.trace("{} is pinned, not evicting it", object);
+            return false;
+        }
+
+        if (entries.remove(object, entry)) {
+            totalBytes.addAndGet(-entry.size);
+        }
+
+        return true;
+    }
+
+    private void track(Path object, long size, long lastAccess) {
+        entries.compute(object, (key, entry) -> {
+            if (entry == null) {
+                totalBytes.addAndGet(size);
+                return new Entry(size, lastAccess);
+            }
+
+            totalBytes.addAndGet(size - entry.size);
+            entry.size = size;
+            entry.lastAccess = Math.max(entry.lastAccess, lastAccess);
+            return entry;
+        });
+    }
+
+    private void scan() {
+        logger.trace("Scanning store {} for eviction", store.getStoreRoot());
+        try {
+            Files.walkFileTree(store.getStoreRoot().toAbsolutePath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    return store.isEvictable(directory) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && !isIgnored(file)) {
+                        long lastUse = Math.max(attributes.lastAccessTime().toMillis(), attributes.lastModifiedTime().toMillis());
+                        // Don't let the scan undo a more recent use
+                        entries.computeIfAbsent(file, key -> {
+                            totalBytes.addAndGet(attributes.size());
+                            return new Entry(attributes.size(), lastUse);
+                        });
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Couldn't scan store {}", store.getStoreRoot(), e);
+        }
+
+        scanned = true;
+        logger.trace("Store {} holds {} objects taking {} bytes", store.getStoreRoot(), entries.size(), totalBytes.get());
+    }
+
+    private static boolean isIgnored(Path file) {
+        String fileName = file.getFileName().toString();
+        if (fileName.startsWith(HashIndex.FILE_NAME)) {
+            return true;
+        }
+
+        for (String suffix : IGNORED_SUFFIXES) {
+            if (fileName.endsWith(suffix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class Entry {
+
+        private final AtomicLong uses = new AtomicLong();
+        private volatile long size;
+        private volatile long lastAccess;
+
+        private Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+    }
+
+    private static final class Candidate {
+
+        private static final Comparator<Candidate> LRU = Comparator.comparingLong(candidate -> candidate.lastAccess);
+        private static final Comparator<Candidate> LFU = Comparator.<Candidate>comparingLong(candidate -> candidate.uses)
+                .thenComparing(LRU);
+
+        private final Path path;
+        private final Entry entry;
+        private final long lastAccess;
+        private final long uses;
+
+        private Candidate(Path path, Entry entry) {
+            this.path = path;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+            this.uses = entry.uses.get();
+        }
+
+    }
+
+    private static final class Sweeper {
+
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileStream Store Sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+    }
+
+}
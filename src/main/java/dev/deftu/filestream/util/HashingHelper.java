@@ -1,40 +1,101 @@
 package dev.deftu.filestream.util;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * <p>
+ * Hashing utilities, safe to use from any thread.
+ * </p>
+ * <p>
+ * The {@link MessageDigest} constants and any digest passed to the
+ * {@code hash} methods are only used to pick an algorithm: the actual work is
+ * done on a digest owned by the calling thread, so callers never contend on
+ * (or corrupt) a shared instance.
+ * </p>
+ *
  * @author xtrm
  */
 public class HashingHelper {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
     public static final MessageDigest SHA512 = findDigest("SHA-512");
     public static final MessageDigest SHA256 = findDigest("SHA-256");
     public static final MessageDigest SHA1 = findDigest("SHA-1");
     public static final MessageDigest MD5 = findDigest("MD5");
 
     public static byte[] hash(byte[] bytes, MessageDigest digest) {
-        return digest.digest(bytes);
+        return getDigest(digest.getAlgorithm()).digest(bytes);
     }
 
     public static String hash(String string, MessageDigest digest) {
         byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
         byte[] hashedBytes = hash(bytes, digest);
 
-        BigInteger bigInt = new BigInteger(1, hashedBytes);
-        return bigInt.toString(16);
+        return toHexString(hashedBytes);
     }
 
     public static String hash(Path path, MessageDigest messageDigest) throws IOException {
-        byte[] fileBytes = Files.readAllBytes(path);
-        byte[] hashedBytes = hash(fileBytes, messageDigest);
+        return hash(path, messageDigest.getAlgorithm());
+    }
+
+    public static String hash(Path path, String algorithm) throws IOException {
+        MessageDigest digest = getDigest(algorithm);
+        digest.reset();
+        update(digest, path);
+        return toHexString(digest.digest());
+    }
+
+    /**
+     * Feeds the whole content of {@code path} into {@code digest}.
+     */
+    public static void update(MessageDigest digest, Path path) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    public static String toHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int value = bytes[i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[value >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[value & 0x0F];
+        }
+
+        return new String(chars);
+    }
 
-        BigInteger bigInt = new BigInteger(1, hashedBytes);
-        return bigInt.toString(16);
+    /**
+     * Returns the calling thread's {@link MessageDigest} for the given
+     * algorithm. It must not be shared with other threads, nor held across
+     * calls to code which might hash something itself.
+     *
+     * @param algorithm the algorithm name, e.g. {@code SHA-256}
+     * @return a thread-confined {@link MessageDigest}
+     */
+    public static MessageDigest getDigest(String algorithm) {
+        return DIGESTS.get().computeIfAbsent(algorithm, HashingHelper::findDigest);
     }
 
     public static MessageDigest findDigest(String algorithm) {
@@ -10,7 +10,6 @@ import org.junit.jupiter.api.Test;
 import org.junit.platform.commons.annotation.Testable;
 
 import java.net.URL;
-import java.nio.file.Path;
 
 @Testable
 public class BestTest {
@@ -28,10 +27,9 @@ public class BestTest {
         dev.deftu.filestream.api.Downloader.Download<URL> dl = downloader.download(new URL("https://wallpaperaccess.com//full/621802.jpg"), (p, tp) -> {
             System.out.println("DL Progress: " + p + "/" + tp + " (" + ((float) p / (float) tp) * 100 + "%)");
         });
-        //noinspection StatementWithEmptyBody
-        while (!dl.isDone()) {
-        }
-        Path path = dl.get();
-        System.out.println("Downloaded at " + path);
+        dl.toCompletionStage()
+                .thenAccept(path -> System.out.println("Downloaded at " + path))
+                .toCompletableFuture()
+                .join();
     }
 }
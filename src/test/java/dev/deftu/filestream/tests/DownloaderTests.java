@@ -0,0 +1,544 @@
+package dev.deftu.filestream.tests;
+
+import dev.deftu.filestream.api.BatchDownloadException;
+import dev.deftu.filestream.api.DownloadRequest;
+import dev.deftu.filestream.api.Downloader;
+import dev.deftu.filestream.api.DownloaderConfig;
+import dev.deftu.filestream.api.HedgingPolicy;
+import dev.deftu.filestream.api.RetryPolicy;
+import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.api.Transport;
+import dev.deftu.filestream.download.InMemoryDownloadMetrics;
+import dev.deftu.filestream.util.HashingHelper;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testable
+public class DownloaderTests {
+    private static TestServer server;
+
+    @BeforeAll
+    @SneakyThrows
+    public static void setup() {
+        Helper.init();
+        server = TestServer.start();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        server.close();
+    }
+
+    @Test
+    @SneakyThrows
+    public void testVerifiedDownload() {
+        URL url = server.serve("/verified.bin", 1024 * 1024);
+        byte[] content = server.getContent("/verified.bin");
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testVerifiedDownload"))) {
+            Path path = downloader.download(url, Downloader.HashProvider.of(sha1(content), "SHA-1"), null).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+
+            URL corrupted = server.serve("/corrupted.bin", 1024);
+            assertThrows(ExecutionException.class, () -> downloader.download(corrupted, Downloader.HashProvider.of(sha1(content), "SHA-1"), null).get());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testConcurrentDownloads() {
+        List<DownloadRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            URL url = server.serve("/batch/" + i, 64 * 1024 + i);
+            requests.add(DownloadRequest.builder(url)
+                    .hash(Downloader.HashProvider.of(sha1(server.getContent("/batch/" + i)), "SHA-1"))
+                    .build());
+        }
+
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testConcurrentDownloads"))) {
+            List<Path> paths = downloader.downloadAll(requests).get();
+            for (int i = 0; i < paths.size(); i++) {
+                assertArrayEquals(server.getContent("/batch/" + i), Files.readAllBytes(paths.get(i)));
+            }
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testBatchAfterClose() {
+        URL url = server.serve("/closed.bin", 1024);
+        Downloader downloader = Downloader.create(Helper.provideStore("testBatchAfterClose"));
+        downloader.close();
+
+        Downloader.BatchDownload batch = downloader.downloadAll(Collections.singletonList(DownloadRequest.builder(url).build()));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> batch.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof BatchDownloadException);
+    }
+
+    @Test
+    @SneakyThrows
+    public void testRestartWithFullQueue() {
+        URL url = server.serve("/restarted.bin", 256 * 1024);
+        URL other = server.serve("/queued.bin", 1024);
+        DownloaderConfig config = DownloaderConfig.builder()
+                .threads(1)
+                .queueCapacity(1)
+                .build();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testRestartWithFullQueue"), config)) {
+            Downloader.Download<URL> first = downloader.download(url, (downloaded, total) -> {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            // The only worker is busy and the queue gets full, the restart
+            // is then scheduled by the worker itself once it's done
+            Downloader.Download<URL> queued = downloader.download(other);
+            first.cancel(true);
+            Downloader.Download<URL> restarted = downloader.download(url);
+            release.countDown();
+
+            assertArrayEquals(server.getContent("/restarted.bin"), Files.readAllBytes(restarted.get(10, TimeUnit.SECONDS)));
+            assertArrayEquals(server.getContent("/queued.bin"), Files.readAllBytes(queued.get(10, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testResume() {
+        URL url = server.serve("/resume.bin", 2 * 1024 * 1024);
+        byte[] content = server.getContent("/resume.bin");
+        Downloader.HashProvider hash = Downloader.HashProvider.of(sha1(content), "SHA-1");
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testResume"))) {
+            server.disconnectAfter(512 * 1024, 1);
+            assertThrows(ExecutionException.class, () -> downloader.download(url, hash, null).get());
+
+            server.clearRequests();
+            Path path = downloader.download(url, hash, null).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+            assertEquals("bytes=" + 512 * 1024 + "-", server.getRequests().get(0).getHeader("Range"));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testSegmentedDownload() {
+        DownloaderConfig config = DownloaderConfig.builder()
+                .segments(4)
+                .segmentThreshold(0)
+                .build();
+        AtomicLong progress = new AtomicLong();
+        try (TestServer rangeServer = TestServer.start();
+             Downloader downloader = Downloader.create(Helper.provideStore("testSegmentedDownload"), config)) {
+            URL url = rangeServer.serve("/segmented.bin", 1024 * 1024 + 3);
+            byte[] content = rangeServer.getContent("/segmented.bin");
+            Path path = downloader.download(url, (downloaded, total) -> progress.set(downloaded)).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+            assertEquals(content.length, progress.get());
+
+            long rangeRequests = rangeServer.getRequests().stream()
+                    .filter(request -> "GET".equals(request.getMethod()) && request.getHeader("Range") != null)
+                    .count();
+            assertEquals(4, rangeRequests);
+
+            // Without range support, the file is downloaded in one piece
+            rangeServer.ranges(false);
+            rangeServer.clearRequests();
+            URL unsegmented = rangeServer.serve("/unsegmented.bin", 256 * 1024);
+            path = downloader.download(unsegmented).get();
+            assertArrayEquals(rangeServer.getContent("/unsegmented.bin"), Files.readAllBytes(path));
+            assertTrue(rangeServer.getRequests().stream().noneMatch(request -> request.getHeader("Range") != null));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testSegmentedDownloadFallbacks() {
+        DownloaderConfig config = DownloaderConfig.builder()
+                .segments(4)
+                .segmentThreshold(0)
+                .build();
+        try (TestServer rangeServer = TestServer.start();
+             Downloader downloader = Downloader.create(Helper.provideStore("testSegmentedDownloadFallbacks"), config)) {
+            // If-Range can't be used with a weak ETag, segments go without
+            rangeServer.weakValidators(true);
+            URL weak = rangeServer.serve("/weak.bin", 512 * 1024);
+            Path path = downloader.download(weak).get();
+            assertArrayEquals(rangeServer.getContent("/weak.bin"), Files.readAllBytes(path));
+            assertTrue(rangeServer.getRequests().stream()
+                    .filter(request -> request.getHeader("Range") != null)
+                    .noneMatch(request -> request.getHeader("If-Range") != null));
+
+            // Ranges advertised but not honored, downloaded in one piece
+            rangeServer.weakValidators(false).honorRanges(false);
+            URL ignored = rangeServer.serve("/ignored.bin", 512 * 1024);
+            path = downloader.download(ignored).get();
+            assertArrayEquals(rangeServer.getContent("/ignored.bin"), Files.readAllBytes(path));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testRevalidation() {
+        URL url = server.serve("/revalidated.bin", 4096);
+        Store store = Helper.provideStore("testRevalidation");
+        try (Downloader downloader = Downloader.create(store)) {
+            downloader.download(url).get();
+            server.clearRequests();
+
+            Path path = downloader.download(url).get();
+            assertArrayEquals(server.getContent("/revalidated.bin"), Files.readAllBytes(path));
+            assertNotNull(server.getRequests().get(0).getHeader("If-None-Match"));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCoalescing() {
+        URL url = server.serve("/coalesced.bin", 256 * 1024);
+        server.latency(Duration.ofMillis(200));
+        server.clearRequests();
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testCoalescing"))) {
+            List<Downloader.Download<URL>> downloads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                downloads.add(downloader.download(url));
+            }
+
+            for (Downloader.Download<URL> download : downloads) {
+                assertArrayEquals(server.getContent("/coalesced.bin"), Files.readAllBytes(download.get()));
+            }
+        } finally {
+            server.latency(Duration.ZERO);
+        }
+
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCompressedDownload() {
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ("compressible " + i / 64).charAt(i % 13);
+        }
+
+        URL url = server.serve("/compressed.bin", content);
+        AtomicLong lastProgress = new AtomicLong();
+        server.compression(true);
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testCompressedDownload"))) {
+            Path path = downloader.download(url, Downloader.HashProvider.of(sha1(content), "SHA-1"), (progress, total) -> {
+                assertTrue(progress <= total);
+                lastProgress.set(progress);
+            }).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+        } finally {
+            server.compression(false);
+        }
+
+        // Progress is counted in compressed bytes
+        assertTrue(lastProgress.get() > 0 && lastProgress.get() < content.length);
+    }
+
+    @Test
+    @SneakyThrows
+    public void testMetrics() {
+        URL url = server.serve("/measured.bin", 128 * 1024);
+        Downloader.HashProvider hash = Downloader.HashProvider.of(sha1(server.getContent("/measured.bin")), "SHA-1");
+        InMemoryDownloadMetrics metrics = new InMemoryDownloadMetrics();
+        DownloaderConfig config = DownloaderConfig.builder().metrics(metrics).build();
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testMetrics"), config)) {
+            downloader.download(url, hash, null).get();
+            downloader.download(url, hash, null).get();
+        }
+
+        assertEquals(1, metrics.getCacheMisses());
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(1, metrics.getTransfers());
+        assertEquals(128 * 1024, metrics.getWireBytes());
+        assertEquals(128 * 1024, metrics.getCachedBytes());
+        assertEquals(2, metrics.getQueueWait().getCount());
+        assertEquals(1, metrics.getTimeToFirstByte().getCount());
+        assertTrue(metrics.toJson().startsWith("{\"cacheHits\":1,"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testThrottledProgress() {
+        URL url = server.serve("/throttled.bin", 1024 * 1024);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong lastProgress = new AtomicLong();
+        DownloaderConfig config = DownloaderConfig.builder().progressBytes(256 * 1024).build();
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testThrottledProgress"), config)) {
+            downloader.download(url, (progress, total) -> {
+                calls.incrementAndGet();
+                lastProgress.set(progress);
+            }).get();
+        }
+
+        assertTrue(calls.get() <= 5, "Progress was reported " + calls.get() + " times");
+        assertEquals(1024 * 1024, lastProgress.get());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testThrottledBatchProgress() {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong lastProgress = new AtomicLong();
+        AtomicInteger regressions = new AtomicInteger();
+        long totalBytes = 0;
+        try (TestServer chunkedServer = TestServer.start().chunked(true)) {
+            // Sizes are unknown until each download is done
+            List<DownloadRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                requests.add(DownloadRequest.builder(chunkedServer.serve("/batch/" + i, 64 * 1024 + i)).build());
+                totalBytes += 64 * 1024 + i;
+            }
+
+            DownloaderConfig config = DownloaderConfig.builder().progressInterval(Duration.ofHours(1)).build();
+            try (Downloader downloader = Downloader.create(Helper.provideStore("testThrottledBatchProgress"), config)) {
+                downloader.downloadAll(requests, (progress, total) -> {
+                    calls.incrementAndGet();
+                    if (lastProgress.getAndSet(progress) > progress) {
+                        regressions.incrementAndGet();
+                    }
+                }).get();
+            }
+        }
+
+        assertTrue(calls.get() <= 2, "Progress was reported " + calls.get() + " times");
+        assertEquals(0, regressions.get());
+        assertEquals(totalBytes, lastProgress.get());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testMirrorFailover() {
+        URL mirror = server.serve("/mirrored.bin", 64 * 1024);
+        byte[] content = server.getContent("/mirrored.bin");
+        DownloadRequest request = DownloadRequest.builder(server.getUrl("/unavailable.bin"))
+                .mirror(mirror)
+                .hash(Downloader.HashProvider.of(sha1(content), "SHA-1"))
+                .build();
+        server.clearRequests();
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testMirrorFailover"))) {
+            Path path = downloader.download(request).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+        }
+
+        assertEquals("/mirrored.bin", server.getRequests().get(server.getRequestCount() - 1).getPath());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testHedging() {
+        URL mirror = server.serve("/hedged.bin", 32 * 1024);
+        byte[] content = server.getContent("/hedged.bin");
+        DownloaderConfig config = DownloaderConfig.builder()
+                .hedging(HedgingPolicy.builder().delay(Duration.ofMillis(50)).build())
+                .build();
+        try (TestServer slowServer = TestServer.start().latency(Duration.ofSeconds(5));
+             Downloader downloader = Downloader.create(Helper.provideStore("testHedging"), config)) {
+            URL primary = slowServer.serve("/hedged.bin", content);
+            long startedAt = System.nanoTime();
+            Path path = downloader.download(DownloadRequest.builder(primary).mirror(mirror).build()).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+            assertTrue(System.nanoTime() - startedAt < Duration.ofSeconds(3).toNanos(), "The hedged request didn't win");
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testHedgingWithinHostLimits() {
+        DownloaderConfig config = DownloaderConfig.builder()
+                .hedging(HedgingPolicy.builder().delay(Duration.ofMillis(50)).build())
+                .maxConnectionsPerHost(1)
+                .build();
+        // Both servers share a host, which only allows one connection
+        try (TestServer slowServer = TestServer.start().latency(Duration.ofMillis(500));
+             TestServer mirrorServer = TestServer.start();
+             Downloader downloader = Downloader.create(Helper.provideStore("testHedgingWithinHostLimits"), config)) {
+            URL primary = slowServer.serve("/limited.bin", 32 * 1024);
+            byte[] content = slowServer.getContent("/limited.bin");
+            URL mirror = mirrorServer.serve("/limited.bin", content);
+            Path path = downloader.download(DownloadRequest.builder(primary).mirror(mirror).build()).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+            assertEquals(0, mirrorServer.getRequestCount());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testRetry() {
+        URL url = server.serve("/retried.bin", 1024 * 1024);
+        byte[] content = server.getContent("/retried.bin");
+        InMemoryDownloadMetrics metrics = new InMemoryDownloadMetrics();
+        DownloaderConfig config = DownloaderConfig.builder()
+                .retry(RetryPolicy.builder().initialDelay(Duration.ofMillis(10)).build())
+                .metrics(metrics)
+                .build();
+        try (Downloader downloader = Downloader.create(Helper.provideStore("testRetry"), config)) {
+            server.clearRequests();
+            server.disconnectAfter(256 * 1024, 2);
+            Path path = downloader.download(url).get();
+            assertArrayEquals(content, Files.readAllBytes(path));
+            assertEquals(3, server.getRequestCount());
+            assertEquals(1, metrics.getCacheMisses());
+            assertEquals(2, metrics.getRetries());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCancellation() {
+        Store store = Helper.provideStore("testCancellation");
+        AtomicLong progress = new AtomicLong();
+        try (TestServer slowServer = TestServer.start().bandwidth(128 * 1024);
+             Downloader downloader = Downloader.create(store)) {
+            URL url = slowServer.serve("/cancelled.bin", 4 * 1024 * 1024);
+            Downloader.Download<URL> first = downloader.download(url);
+            Downloader.Download<URL> second = downloader.download(url, (downloaded, total) -> progress.set(downloaded));
+            Thread.sleep(300);
+
+            // The transfer is shared, it must go on for the other download
+            assertTrue(first.cancel(true));
+            Thread.sleep(300);
+            assertFalse(second.isDone());
+
+            assertTrue(second.cancel(true));
+            assertThrows(CompletionException.class, () -> second.toCompletionStage().toCompletableFuture().join());
+            Thread.sleep(300);
+            long cancelledAt = progress.get();
+            Thread.sleep(300);
+            assertEquals(cancelledAt, progress.get(), "The transfer went on after being cancelled");
+
+            Path storeObject = store.getObject(url.toString());
+            assertFalse(Files.exists(storeObject.resolveSibling(storeObject.getFileName() + ".part")));
+            assertFalse(Files.exists(storeObject));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCancellationDuringBackoff() {
+        Store store = Helper.provideStore("testCancellationDuringBackoff");
+        DownloaderConfig config = DownloaderConfig.builder()
+                .retry(RetryPolicy.builder().initialDelay(Duration.ofHours(1)).maxDelay(Duration.ofHours(1)).build())
+                .build();
+        try (TestServer flakyServer = TestServer.start();
+             Downloader downloader = Downloader.create(store, config)) {
+            URL url = flakyServer.serve("/backoff.bin", 1024 * 1024);
+            Path storeObject = store.getObject(url.toString());
+            Path tempObject = storeObject.resolveSibling(storeObject.getFileName() + ".part");
+            Path tempMetadataFile = tempObject.resolveSibling(tempObject.getFileName() + ".meta");
+            flakyServer.disconnectAfter(256 * 1024, 1);
+            Downloader.Download<URL> download = downloader.download(url);
+
+            // The failed attempt keeps its partial download to resume from
+            Thread.sleep(500);
+            assertEquals(1, flakyServer.getRequestCount());
+            assertTrue(Files.exists(tempObject));
+            assertTrue(Files.exists(tempMetadataFile));
+
+            assertTrue(download.cancel(true));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((Files.exists(tempObject) || Files.exists(tempMetadataFile)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertFalse(Files.exists(tempObject));
+            assertFalse(Files.exists(tempMetadataFile));
+            assertEquals(1, flakyServer.getRequestCount());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testConnectionReuse() {
+        try (TestServer reuseServer = TestServer.start()) {
+            URL small = reuseServer.serve("/small.bin", 16 * 1024);
+            URL large = reuseServer.serve("/large.bin", 1024 * 1024);
+            URL missing = reuseServer.getUrl("/missing.bin");
+            for (int i = 0; i < 10; i++) {
+                try (Transport.Response response = Transport.DEFAULT.send(i % 2 == 0 ? small : missing, "GET", Collections.emptyMap())) {
+                    if (response.getStatusCode() == 200) {
+                        assertArrayEquals(reuseServer.getContent("/small.bin"), readAll(response.getBody()));
+                    }
+                }
+            }
+
+            // A small body left unread is skipped to keep the connection
+            Transport.DEFAULT.send(small, "GET", Collections.emptyMap()).close();
+            Transport.DEFAULT.send(small, "GET", Collections.emptyMap()).close();
+            assertEquals(1, reuseServer.getConnectionCount());
+
+            // A large one isn't worth reading through
+            Transport.DEFAULT.send(large, "GET", Collections.emptyMap()).close();
+            Transport.DEFAULT.send(small, "GET", Collections.emptyMap()).close();
+            assertEquals(2, reuseServer.getConnectionCount());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testFileTransport() {
+        byte[] content = "local content".getBytes();
+        Path file = Files.createTempFile("filestream", ".bin");
+        try {
+            Files.write(file, content);
+            URL url = file.toUri().toURL();
+            try (Transport.Response response = Transport.DEFAULT.send(url, "GET", Collections.emptyMap())) {
+                assertEquals(200, response.getStatusCode());
+                assertEquals(content.length, response.getContentLength());
+                assertArrayEquals(content, readAll(response.getBody()));
+            }
+
+            try (Downloader downloader = Downloader.create(Helper.provideStore("testFileTransport"))) {
+                assertArrayEquals(content, Files.readAllBytes(downloader.download(url).get()));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static String sha1(byte[] content) {
+        return HashingHelper.toHexString(HashingHelper.hash(content, HashingHelper.SHA1));
+    }
+}
@@ -0,0 +1,80 @@
+package dev.deftu.filestream.tests;
+
+import dev.deftu.filestream.util.HashingHelper;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testable
+public class HashingTests {
+    @BeforeAll
+    public static void setup() {
+        Helper.init();
+    }
+
+    @Test
+    public void testLeadingZeros() {
+        assertEquals("000f10ff", HashingHelper.toHexString(new byte[]{0x00, 0x0F, 0x10, (byte) 0xFF}));
+
+        // MD5("jk8ssl") starts with a zero byte
+        String hash = HashingHelper.hash("jk8ssl", HashingHelper.MD5);
+        assertEquals(32, hash.length());
+        assertEquals("0000000018e6137ac2caab16074784a6", hash);
+    }
+
+    @Test
+    @SneakyThrows
+    public void testFileHash() {
+        byte[] bytes = new byte[300_000];
+        new Random(42).nextBytes(bytes);
+
+        Path file = Helper.provideStore("testFileHash").getObject("random.bin");
+        Files.write(file, bytes);
+
+        for (String algorithm : new String[]{"SHA-512", "SHA-256", "SHA-1", "MD5"}) {
+            String expected = HashingHelper.toHexString(MessageDigest.getInstance(algorithm).digest(bytes));
+            assertEquals(expected, HashingHelper.hash(file, algorithm));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void testConcurrentHashing() {
+        String expected = HashingHelper.toHexString(MessageDigest.getInstance("SHA-256").digest("concurrent".getBytes()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1_000; j++) {
+                        if (!expected.equals(HashingHelper.hash("concurrent", HashingHelper.SHA256))) {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package dev.deftu.filestream.tests;
 
 import dev.deftu.filestream.api.Store;
+import dev.deftu.filestream.store.CachingObjectSchema;
+import dev.deftu.filestream.store.ContentAddressedStore;
+import dev.deftu.filestream.store.EvictionPolicy;
+import dev.deftu.filestream.store.FastHashSchema;
+import dev.deftu.filestream.store.FileStore;
+import dev.deftu.filestream.store.HashIndex;
+import dev.deftu.filestream.store.StoreEviction;
+import dev.deftu.filestream.util.HashingHelper;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -8,6 +16,10 @@ import org.junit.platform.commons.annotation.Testable;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -44,4 +56,252 @@ public class StoreTests {
         String result2 = new String(Files.readAllBytes(object2));
         assertEquals(toWrite, result2);
     }
+
+    @Test
+    @SneakyThrows
+    public void testHashIndex() {
+        Store store = Helper.provideStore("testHashIndex");
+        Path object = store.getObject("indexed");
+        Files.write(object, "indexed content".getBytes());
+        String hash = HashingHelper.hash(object, "SHA-1");
+
+        HashIndex hashIndex = store.getHashIndex();
+        assertNotNull(hashIndex);
+        assertFalse(hashIndex.isVerified(object, "SHA-1", hash));
+        hashIndex.record(object, "SHA-1", hash);
+        assertTrue(hashIndex.isVerified(object, "SHA-1", hash));
+        assertFalse(hashIndex.isVerified(object, "MD5", hash));
+
+        HashIndex reloaded = new HashIndex(store.getStoreRoot());
+        assertTrue(reloaded.isVerified(object, "SHA-1", hash));
+
+        Files.write(object, "modified content".getBytes());
+        assertFalse(reloaded.isVerified(object, "SHA-1", hash));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testTornHashIndex() {
+        Store store = Helper.provideStore("testTornHashIndex");
+        Path[] objects = new Path[3];
+        String[] hashes = new String[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = store.getObject("object" + i);
+            Files.write(objects[i], ("content " + i).getBytes());
+            hashes[i] = HashingHelper.hash(objects[i], "SHA-1");
+        }
+
+        HashIndex hashIndex = new HashIndex(store.getStoreRoot());
+        hashIndex.record(objects[0], "SHA-1", hashes[0]);
+        hashIndex.record(objects[1], "SHA-1", hashes[1]);
+
+        // Tear the last record, as a crash in the middle of a write would
+        Path indexFile = store.getStoreRoot().resolve(HashIndex.FILE_NAME);
+        byte[] log = Files.readAllBytes(indexFile);
+        Files.write(indexFile, Arrays.copyOf(log, log.length - 5));
+
+        hashIndex = new HashIndex(store.getStoreRoot());
+        assertTrue(hashIndex.isVerified(objects[0], "SHA-1", hashes[0]));
+        assertFalse(hashIndex.isVerified(objects[1], "SHA-1", hashes[1]));
+        hashIndex.record(objects[2], "SHA-1", hashes[2]);
+
+        HashIndex reloaded = new HashIndex(store.getStoreRoot());
+        assertTrue(reloaded.isVerified(objects[0], "SHA-1", hashes[0]));
+        assertTrue(reloaded.isVerified(objects[2], "SHA-1", hashes[2]));
+        assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testContentAddressedStore() {
+        ContentAddressedStore store = new ContentAddressedStore(Helper.provideStore("testContentAddressedStore").getStoreRoot(), "cas");
+        byte[] content = "shared content".getBytes();
+        String hash = HashingHelper.hash("shared content", HashingHelper.SHA256);
+
+        Path first = store.getObject("https://mirror-a.example/file.jar");
+        Path second = store.getObject("https://mirror-b.example/file.jar");
+        for (Path object : new Path[]{first, second}) {
+            Files.createDirectories(object.getParent());
+            Path tempObject = object.resolveSibling(object.getFileName() + ".part");
+            Files.write(tempObject, content);
+            store.commit(tempObject, object, null);
+            assertFalse(Files.exists(tempObject));
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(first));
+        assertArrayEquals(content, Files.readAllBytes(second));
+        assertTrue(Files.isSameFile(first, second));
+        assertTrue(Files.isSameFile(store.getContent(hash), first));
+
+        Path third = store.getObject("https://mirror-c.example/file.jar");
+        assertTrue(store.linkContent(third, "SHA-256", hash));
+        assertArrayEquals(content, Files.readAllBytes(third));
+        assertFalse(store.linkContent(third, "SHA-256", HashingHelper.hash("other content", HashingHelper.SHA256)));
+
+        // Content corrupted in place, size unchanged, is replaced by a fresh
+        // commit instead of being linked to
+        Path stored = store.getContent(hash);
+        Files.write(stored, "SHARED CONTENT".getBytes());
+        Files.setLastModifiedTime(stored, FileTime.fromMillis(0));
+        Path fourth = store.getObject("https://mirror-d.example/file.jar");
+        Path tempObject = fourth.resolveSibling(fourth.getFileName() + ".part");
+        Files.createDirectories(fourth.getParent());
+        Files.write(tempObject, content);
+        store.commit(tempObject, fourth, null);
+        assertArrayEquals(content, Files.readAllBytes(stored));
+        assertArrayEquals(content, Files.readAllBytes(fourth));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testEviction() {
+        FileStore store = Helper.provideStore("testEviction");
+        Path[] objects = new Path[5];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = store.getObject("object" + i);
+            Files.write(objects[i], new byte[100]);
+            // object0 was used the longest time ago
+            FileTime time = FileTime.fromMillis(System.currentTimeMillis() - (objects.length - i) * 60_000L);
+            Files.getFileAttributeView(objects[i], BasicFileAttributeView.class).setTimes(time, time, null);
+        }
+
+        store.pin(objects[0]);
+        StoreEviction eviction = store.enableEviction(EvictionPolicy.builder()
+                .maxBytes(300)
+                .sweepInterval(Duration.ofHours(1))
+                .build());
+        eviction.sweep();
+        store.disableEviction();
+
+        assertTrue(Files.exists(objects[0]));
+        assertFalse(Files.exists(objects[1]));
+        assertFalse(Files.exists(objects[2]));
+        assertTrue(Files.exists(objects[3]));
+        assertTrue(Files.exists(objects[4]));
+        assertTrue(eviction.getTotalBytes() <= 300);
+    }
+
+    @Test
+    @SneakyThrows
+    public void testSubStoreEviction() {
+        FileStore store = Helper.provideStore("testSubStoreEviction");
+        Store subStore = store.getSubStore("sub");
+        Path pinned = subStore.getObject("pinned");
+        Path unpinned = subStore.getObject("unpinned");
+        Files.write(pinned, new byte[100]);
+        Files.write(unpinned, new byte[100]);
+        String hash = HashingHelper.hash(unpinned, "SHA-1");
+        subStore.getHashIndex().record(pinned, "SHA-1", hash);
+        subStore.getHashIndex().record(unpinned, "SHA-1", hash);
+
+        // Pinned through the sub-store, evicted through its parent
+        subStore.pin(pinned);
+        StoreEviction eviction = store.enableEviction(EvictionPolicy.builder()
+                .maxBytes(0)
+                .sweepInterval(Duration.ofHours(1))
+                .build());
+        eviction.sweep();
+        assertTrue(Files.exists(pinned));
+        assertFalse(Files.exists(unpinned));
+
+        // The sub-store's index forgets the object, also once reloaded
+        assertEquals(1, subStore.getHashIndex().size());
+        assertEquals(1, new HashIndex(subStore.getStoreRoot()).size());
+
+        // Writes to the sub-store are accounted for by its parent
+        Path written = subStore.getObject("written");
+        Path tempObject = written.resolveSibling("written.part");
+        Files.write(tempObject, new byte[50]);
+        subStore.commit(tempObject, written, null);
+        assertEquals(150, eviction.getTotalBytes());
+
+        subStore.unpin(pinned);
+        eviction.sweep();
+        store.disableEviction();
+        assertFalse(Files.exists(pinned));
+        assertFalse(Files.exists(written));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testContentAddressedStoreEviction() {
+        ContentAddressedStore store = new ContentAddressedStore(Helper.provideStore("testContentAddressedStoreEviction").getStoreRoot(), "cas");
+        byte[] pinnedContent = new byte[100];
+        byte[] otherContent = new byte[50];
+        Arrays.fill(otherContent, (byte) 1);
+
+        // Pinned before it exists, the way downloads pin their objects
+        Path pinned = store.getObject("pinned");
+        store.pin(pinned);
+        Path unpinned = store.getObject("unpinned");
+        for (Path object : new Path[]{pinned, unpinned}) {
+            Files.createDirectories(object.getParent());
+            Path tempObject = object.resolveSibling(object.getFileName() + ".part");
+            Files.write(tempObject, object == pinned ? pinnedContent : otherContent);
+            store.commit(tempObject, object, null);
+        }
+
+        String pinnedHash = HashingHelper.hash(pinned, "SHA-256");
+
+        // A name which fell back to a copy of its content
+        Path copied = store.getObject("copied");
+        Files.createDirectories(copied.getParent());
+        Files.write(copied, otherContent);
+
+        StoreEviction eviction = store.enableEviction(EvictionPolicy.builder()
+                .maxBytes(0)
+                .sweepInterval(Duration.ofHours(1))
+                .build());
+        eviction.sweep();
+        assertTrue(Files.exists(store.getContent(pinnedHash)));
+        assertArrayEquals(pinnedContent, Files.readAllBytes(pinned));
+        assertFalse(Files.exists(unpinned));
+        assertTrue(Files.exists(copied));
+        assertEquals(1, eviction.getObjectCount());
+        assertEquals(100, eviction.getTotalBytes());
+
+        // Corrupted content isn't deleted from under a pinned name either
+        Path content = store.getContent(pinnedHash);
+        Files.write(content, new byte[1]);
+        assertFalse(store.linkContent(store.getObject("other"), "SHA-256", pinnedHash));
+        assertTrue(Files.exists(content));
+
+        store.unpin(pinned);
+        eviction.sweep();
+        store.disableEviction();
+        assertFalse(Files.exists(content));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testCachedSchema() {
+        CachingObjectSchema schema = Store.ObjectSchema.cached(FastHashSchema.INSTANCE, 4);
+        Store store = Helper.provideStore("testCachedSchema", schema);
+
+        Path object = store.getObject("cached");
+        assertEquals(FastHashSchema.INSTANCE.getObjectPath(store.getStoreRoot(), "cached"), object);
+        assertEquals(object, store.getObject("cached"));
+        assertEquals(1, schema.getHits());
+        assertEquals(1, schema.getMisses());
+
+        for (int i = 0; i < 16; i++) {
+            store.getObject("filler" + i);
+        }
+
+        assertTrue(schema.size() <= 4);
+        assertEquals(object, store.getObject("cached"));
+        assertEquals(18, schema.getMisses());
+    }
+
+    @Test
+    public void testMavenSchema() {
+        Store store = Helper.provideStore("testMavenSchema", Store.ObjectSchema.MAVEN);
+        Path root = store.getStoreRoot();
+        assertEquals(root.resolve("com/example/lib/1.0/lib-1.0.jar"), store.getObject("com.example:lib:1.0"));
+        assertEquals(root.resolve("com/example/lib/1.0/lib-1.0-sources.zip"), store.getObject("com.example:lib:1.0:sources:zip"));
+        assertThrows(UnsupportedOperationException.class, () -> store.getObject("com.example:lib"));
+        assertThrows(UnsupportedOperationException.class, () -> store.getObject("com.example:lib:1.0/../../escaped"));
+        assertThrows(UnsupportedOperationException.class, () -> store.getObject("com.example:/lib:1.0"));
+        assertThrows(UnsupportedOperationException.class, () -> store.getObject("com\\example:lib:1.0"));
+    }
 }
@@ -0,0 +1,398 @@
+package dev.deftu.filestream.tests;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.deftu.filestream.util.HashingHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * A loopback HTTP server serving synthetic files, so downloads can be
+ * tested and benchmarked without network access.
+ * </p>
+ * <p>
+ * It honors single byte ranges, {@code ETag} validators and compression,
+ * and can inject latency, bandwidth limits and mid-stream disconnects.
+ * </p>
+ *
+ * @author xtrm
+ */
+public class TestServer implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "FileStream Test Server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger disconnects = new AtomicInteger();
+
+    private volatile Duration latency = Duration.ZERO;
+    private volatile long bytesPerSecond = -1;
+    private volatile boolean ranges = true;
+    private volatile boolean honorRanges = true;
+    private volatile boolean validators = true;
+    private volatile boolean weakValidators = false;
+    private volatile boolean compression = false;
+    private volatile boolean chunked = false;
+    private volatile long disconnectAfter = -1;
+
+    private TestServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static TestServer start() throws IOException {
+        TestServer testServer = new TestServer();
+        testServer.server.start();
+        return testServer;
+    }
+
+    /**
+     * Serves {@code size} random bytes, the same for a given path, at
+     * {@code path}.
+     */
+    public URL serve(String path, int size) {
+        byte[] content = new byte[size];
+        new Random(path.hashCode()).nextBytes(content);
+        return serve(path, content);
+    }
+
+    public URL serve(String path, byte[] content) {
+        files.put(path, content);
+        etags.put(path, "\"" + HashingHelper.toHexString(HashingHelper.hash(content, HashingHelper.SHA1)).substring(0, 16) + "\"");
+        return getUrl(path);
+    }
+
+    public byte[] getContent(String path) {
+        return files.get(path);
+    }
+
+    public URL getUrl(String path) {
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Waits this long before answering each request.
+     */
+    public TestServer latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Limits each response body to this many bytes per second, {@code -1}
+     * for no limit.
+     */
+    public TestServer bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    public TestServer ranges(boolean ranges) {
+        this.ranges = ranges;
+        return this;
+    }
+
+    /**
+     * Whether to honor range requests, while still advertising support for
+     * them if {@link #ranges(boolean)} is enabled.
+     */
+    public TestServer honorRanges(boolean honorRanges) {
+        this.honorRanges = honorRanges;
+        return this;
+    }
+
+    /**
+     * Whether to send weak {@code ETag}s, which {@code If-Range} must not be
+     * evaluated against.
+     */
+    public TestServer weakValidators(boolean weakValidators) {
+        this.weakValidators = weakValidators;
+        return this;
+    }
+
+    /**
+     * Whether to send {@code ETag} validators and answer conditional
+     * requests with them.
+     */
+    public TestServer validators(boolean validators) {
+        this.validators = validators;
+        return this;
+    }
+
+    /**
+     * Whether to compress full responses when the client accepts gzip or
+     * deflate.
+     */
+    public TestServer compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Whether to send bodies chunked, without a {@code Content-Length}.
+     */
+    public TestServer chunked(boolean chunked) {
+        this.chunked = chunked;
+        return this;
+    }
+
+    /**
+     * Cuts the connection after {@code bytes} of the body were sent, for
+     * the next {@code times} responses.
+     */
+    public TestServer disconnectAfter(long bytes, int times) {
+        this.disconnectAfter = bytes;
+        this.disconnects.set(times);
+        return this;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * @return the number of distinct connections the recorded requests
+     * came in on
+     */
+    public long getConnectionCount() {
+        return getRequests().stream().map(Request::getRemoteAddress).distinct().count();
+    }
+
+    public void clearRequests() {
+        requests.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Headers requestHeaders = exchange.getRequestHeaders();
+        requests.add(new Request(exchange.getRequestMethod(), path, requestHeaders, exchange.getRemoteAddress()));
+
+        sleep(latency.toMillis());
+
+        byte[] content = files.get(path);
+        if (content == null) {
+            byte[] notFound = ("No file at " + path).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, notFound.length);
+            exchange.getResponseBody().write(notFound);
+            exchange.getResponseBody().close();
+            return;
+        }
+
+        Headers responseHeaders = exchange.getResponseHeaders();
+        String etag = weakValidators ? "W/" + etags.get(path) : etags.get(path);
+        if (validators) {
+            responseHeaders.set("ETag", etag);
+            if (etag.equals(requestHeaders.getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+
+        if (ranges) {
+            responseHeaders.set("Accept-Ranges", "bytes");
+        }
+
+        int start = 0;
+        int end = content.length - 1;
+        String range = requestHeaders.getFirst("Range");
+        String ifRange = requestHeaders.getFirst("If-Range");
+        boolean partial = ranges && honorRanges && range != null && range.startsWith("bytes=")
+                && (ifRange == null || (validators && !weakValidators && ifRange.equals(etag)));
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Integer.parseInt(bounds[0].trim());
+            if (!bounds[1].trim().isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1].trim()));
+            }
+
+            if (start >= content.length || start > end) {
+                responseHeaders.set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+
+            responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+
+        byte[] body = content;
+        int offset = start;
+        int length = end - start + 1;
+        String encoding = partial || !compression ? null : findEncoding(requestHeaders.getFirst("Accept-Encoding"));
+        if (encoding != null) {
+            body = encode(content, encoding);
+            offset = 0;
+            length = body.length;
+            responseHeaders.set("Content-Encoding", encoding);
+        }
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            if (!chunked) {
+                responseHeaders.set("Content-Length", Integer.toString(length));
+            }
+
+            exchange.sendResponseHeaders(partial ? 206 : 200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(partial ? 206 : 200, chunked ? 0 : length);
+        long cutAfter = disconnects.getAndUpdate(times -> Math.max(0, times - 1)) > 0 ? disconnectAfter : -1;
+        OutputStream outputStream = exchange.getResponseBody();
+        long started = System.nanoTime();
+        int written = 0;
+        while (written < length) {
+            int chunk = Math.min(CHUNK_SIZE, length - written);
+            if (cutAfter >= 0 && written + chunk > cutAfter) {
+                outputStream.write(body, offset + written, (int) (cutAfter - written));
+                outputStream.flush();
+                // Failing the exchange makes the server drop the connection
+                throw new IOException("Injected disconnect after " + cutAfter + " bytes");
+            }
+
+            outputStream.write(body, offset + written, chunk);
+            written += chunk;
+            throttle(written, started);
+        }
+    }
+
+    private void throttle(long written, long started) {
+        long limit = bytesPerSecond;
+        if (limit <= 0) {
+            return;
+        }
+
+        long expectedNanos = written * 1_000_000_000L / limit;
+        long elapsedNanos = System.nanoTime() - started;
+        if (expectedNanos > elapsedNanos) {
+            sleep((expectedNanos - elapsedNanos) / 1_000_000L);
+        }
+    }
+
+    private static String findEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        if (acceptEncoding.contains("gzip")) {
+            return "gzip";
+        }
+
+        return acceptEncoding.contains("deflate") ? "deflate" : null;
+    }
+
+    private static byte[] encode(byte[] content, String encoding) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (OutputStream encoder = "gzip".equals(encoding)
+                ? new GZIPOutputStream(outputStream)
+                : new DeflaterOutputStream(outputStream)) {
+            encoder.write(content);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A request the server received.
+     *
+     * @author xtrm
+     */
+    public static final class Request {
+
+        private final String method;
+        private final String path;
+        private final Headers headers;
+        private final InetSocketAddress remoteAddress;
+
+        private Request(String method, String path, Headers headers, InetSocketAddress remoteAddress) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.remoteAddress = remoteAddress;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHeader(String name) {
+            return headers.getFirst(name);
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+
+    }
+
+}